@@ -0,0 +1,144 @@
+package csp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for {@link CSP#solve} over random instances from
+ * {@link CSPInstanceGenerator}. Each parameter combination solves the same
+ * seeded pool of instances, and the solver's phase timings and counters
+ * are reported next to the score as secondary results, so a regression can
+ * be pinned on node consistency, propagation or backtracking.
+ *
+ * The default parameters stay within what chronological backtracking can
+ * get through in a reasonable time; more meetings or denser "!=" heavy
+ * instances hit its exponential worst case, and can be run on purpose with
+ * JMH's -p option (i.e. -p nMeetings=32 -p density=0.2).
+ *
+ * Run from the IDE through main, or pass the system property
+ * "csp.bench.dump" to write the instance pools out to that directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSPBenchmark {
+
+    /* Instances per parameter combination, solved round robin */
+    private static final int POOL_SIZE = 64;
+
+    @State(Scope.Benchmark)
+    public static class Instances {
+
+        @Param({"42"})
+        public long seed;
+
+        @Param({"4", "8"})
+        public int nMeetings;
+
+        @Param({"30", "365", "36500"})
+        public int rangeDays;
+
+        @Param({"0.05"})
+        public double density;
+
+        @Param({CSPInstanceGenerator.MIXED, CSPInstanceGenerator.ORDERING, CSPInstanceGenerator.EQUALITY})
+        public String opMix;
+
+        @Param({"1.0", "0.5"})
+        public double satisfiableRatio;
+
+        List<CSPInstanceGenerator.Instance> pool = new ArrayList<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate() throws IOException {
+            CSPInstanceGenerator generator =
+                    new CSPInstanceGenerator(seed, nMeetings, rangeDays, density, opMix, satisfiableRatio);
+            for (int i = 0; i < POOL_SIZE; i++)
+                pool.add(generator.next());
+
+            String dump = System.getProperty("csp.bench.dump");
+            if (dump != null) {
+                Path dir = Files.createDirectories(Paths.get(dump));
+                String name = String.join("_", "csp", "" + seed, "" + nMeetings, "" + rangeDays, "" + density,
+                                          opMix, "" + satisfiableRatio);
+                for (int i = 0; i < pool.size(); i++)
+                    pool.get(i).write(dir.resolve(name + "_" + i + ".txt"));
+            }
+        }
+
+        CSPInstanceGenerator.Instance next() {
+            CSPInstanceGenerator.Instance instance = pool.get(next);
+            next = (next + 1) % pool.size();
+            return instance;
+        }
+    }
+
+    /**
+     * Solver counters summed over each measurement iteration, reported by JMH as secondary results
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Phases {
+
+        public long nodes, backtracks, arcRevisions, valuesPruned;
+        public long nodeConsistencyNanos, propagationNanos, backtrackingNanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = backtracks = arcRevisions = valuesPruned = 0;
+            nodeConsistencyNanos = propagationNanos = backtrackingNanos = 0;
+        }
+
+        void add(SolveStats stats) {
+            nodes += stats.getNodes();
+            backtracks += stats.getBacktracks();
+            arcRevisions += stats.getArcRevisions();
+            valuesPruned += stats.getValuesPruned();
+            nodeConsistencyNanos += stats.getNodeConsistencyNanos();
+            propagationNanos += stats.getPropagationNanos();
+            backtrackingNanos += stats.getBacktrackingNanos();
+        }
+    }
+
+    @Benchmark
+    public Object solve(Instances instances) {
+        return instances.next().solve();
+    }
+
+    @Benchmark
+    public Object solveWithPhases(Instances instances, Phases phases) {
+        SolveStats stats = instances.next().solveWithStats();
+        phases.add(stats);
+        return stats.getSolution();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CSPBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,101 @@
+package csp;
+
+import java.util.BitSet;
+
+/**
+ * BitSetDomains store a date domain as one bit per epoch day, offset
+ * from the first day of the domain, which is the cheaper representation
+ * for short or heavily fragmented domains, such as:
+ * 2019-01-01 + {0, 2, 4, 6, ...}
+ */
+class BitSetDomain extends DateDomain {
+
+    private final long origin;
+    private final BitSet days;
+
+    /**
+     * Constructs a BitSetDomain holding every day from first to last
+     */
+    BitSetDomain(long first, long last) {
+        origin = first;
+        days = new BitSet(Math.toIntExact(last - first + 1));
+        days.set(0, Math.toIntExact(last - first + 1));
+    }
+
+    /**
+     * Constructs a BitSetDomain from the first n of the given sorted, disjoint runs
+     */
+    BitSetDomain(long[] starts, long[] ends, int n) {
+        origin = n == 0 ? 0 : starts[0];
+        days = new BitSet(n == 0 ? 0 : Math.toIntExact(ends[n - 1] - origin + 1));
+        for (int i = 0; i < n; i++)
+            days.set(index(starts[i]), index(ends[i]) + 1);
+    }
+
+    @Override
+    boolean isEmpty() { return days.isEmpty(); }
+
+    @Override
+    long size() { return days.cardinality(); }
+
+    @Override
+    long min() { return origin + days.nextSetBit(0); }
+
+    @Override
+    long max() { return origin + days.length() - 1; }
+
+    @Override
+    boolean contains(long day) { return day >= origin && day <= max() && days.get(index(day)); }
+
+    @Override
+    long next(long from) {
+        if (isEmpty() || from > max()) return NONE;
+        int i = days.nextSetBit(from < origin ? 0 : index(from));
+        return i < 0 ? NONE : origin + i;
+    }
+
+    @Override
+    long runEnd(long day) { return origin + days.nextClearBit(index(day)) - 1; }
+
+    @Override
+    int runs() {
+        int runs = 0;
+        for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(days.nextClearBit(i)))
+            runs++;
+        return runs;
+    }
+
+    @Override
+    long restrict(String op, long day) {
+        if (isEmpty()) return 0;
+        long min = min(), max = max();
+        switch (op) {
+            case "<": return clear(Math.max(day, min), max);
+            case "<=": return day != Long.MAX_VALUE ? clear(Math.max(day + 1, min), max) : 0;
+            case ">": return clear(min, Math.min(day, max));
+            case ">=": return day != Long.MIN_VALUE ? clear(min, Math.min(day - 1, max)) : 0;
+            case "==":
+                if (!contains(day)) return clear(min, max);
+                return clear(min, day - 1) + clear(day + 1, max);
+            case "!=": return clear(day, day);
+        }
+        return 0;
+    }
+
+    /* Clears the days from first to last (inclusive), returning how many of them were set */
+    private long clear(long first, long last) {
+        if (first > last || first > max() || last < origin) return 0;
+        int from = index(Math.max(first, origin)), to = index(Math.min(last, max())) + 1;
+        long cleared = 0;
+        for (int i = days.nextSetBit(from); i >= 0 && i < to; ) {
+            int end = Math.min(days.nextClearBit(i), to);
+            cleared += end - i;
+            i = days.nextSetBit(end);
+        }
+        days.clear(from, to);
+        return cleared;
+    }
+
+    private int index(long day) { return (int) (day - origin); }
+
+}
@@ -10,9 +10,10 @@ package csp;
 import java.time.LocalDate;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -42,17 +43,88 @@ public class CSP {
      */
     public static List<LocalDate> solve(int nMeetings, LocalDate rangeStart, LocalDate rangeEnd,
                                         Set<DateConstraint> constraints) {
-        Set<LocalDate> dateRange =
-                rangeStart.datesUntil(rangeEnd.plusDays(1)).collect(Collectors.toCollection(LinkedHashSet::new));
+        return solveWithStats(nMeetings, rangeStart, rangeEnd, constraints).getSolution();
+    }
 
-        /* Map of variable numbers to a DateVar with full domain */
-        HashMap<Integer, DateVar> variables = IntStream.range(0, nMeetings).boxed().collect(
-                Collectors.toMap(i -> i, i -> new DateVar(i, dateRange), (a, b) -> b, HashMap::new));
+    /**
+     * Same as {@link #solve(int, LocalDate, LocalDate, Set)}, with control over how the solver uses threads.
+     *
+     * @param nMeetings   The number of meetings that must be scheduled, indexed from 0 to n-1
+     * @param rangeStart  The start date (inclusive) of the domains of each of the n meeting-variables
+     * @param rangeEnd    The end date (inclusive) of the domains of each of the n meeting-variables
+     * @param constraints Date constraints on the meeting times (unary and binary for this assignment)
+     * @param config      Size threshold for parallel work and the pool it runs in
+     * @return A list of dates that satisfies each of the constraints for each of the n meetings,
+     * indexed by the variable they satisfy, or null if no solution exists.
+     */
+    public static List<LocalDate> solve(int nMeetings, LocalDate rangeStart, LocalDate rangeEnd,
+                                        Set<DateConstraint> constraints, SolverConfig config) {
+        return solveWithStats(nMeetings, rangeStart, rangeEnd, constraints, config).getSolution();
+    }
+
+    /**
+     * Same as {@link #solve(int, LocalDate, LocalDate, Set)}, but also reports how much work each phase of the
+     * solver did and how long it took, to find out why some problems are slow to solve.
+     *
+     * @param nMeetings   The number of meetings that must be scheduled, indexed from 0 to n-1
+     * @param rangeStart  The start date (inclusive) of the domains of each of the n meeting-variables
+     * @param rangeEnd    The end date (inclusive) of the domains of each of the n meeting-variables
+     * @param constraints Date constraints on the meeting times (unary and binary for this assignment)
+     * @return The solver's counters and phase timings, holding the same solution solve would have returned
+     */
+    public static SolveStats solveWithStats(int nMeetings, LocalDate rangeStart, LocalDate rangeEnd,
+                                            Set<DateConstraint> constraints) {
+        return solveWithStats(nMeetings, rangeStart, rangeEnd, constraints, SolverConfig.DEFAULT);
+    }
 
-        if (!nodeConsistency(constraints, variables) || !constraintPropogation(constraints, variables))
-            return null;
+    /**
+     * Same as {@link #solveWithStats(int, LocalDate, LocalDate, Set)}, with control over how the solver uses
+     * threads.
+     *
+     * @param nMeetings   The number of meetings that must be scheduled, indexed from 0 to n-1
+     * @param rangeStart  The start date (inclusive) of the domains of each of the n meeting-variables
+     * @param rangeEnd    The end date (inclusive) of the domains of each of the n meeting-variables
+     * @param constraints Date constraints on the meeting times (unary and binary for this assignment)
+     * @param config      Size threshold for parallel work and the pool it runs in
+     * @return The solver's counters and phase timings, holding the same solution solve would have returned
+     */
+    public static SolveStats solveWithStats(int nMeetings, LocalDate rangeStart, LocalDate rangeEnd,
+                                            Set<DateConstraint> constraints, SolverConfig config) {
+        return solveTable(nMeetings, rangeStart.toEpochDay(), rangeEnd.toEpochDay(), ConstraintTable.of(constraints),
+                          config);
+    }
 
-        return rBackTracking(new HashMap<>(), new HashSet<>(variables.values()), constraints);
+    /**
+     * Solves the problem held by a constraint table, i.e. one loaded straight from a {@link ProblemFile}.
+     *
+     * @param nMeetings   The number of meetings that must be scheduled, indexed from 0 to n-1
+     * @param first       The start epoch day (inclusive) of the domains of each of the n meeting-variables
+     * @param last        The end epoch day (inclusive) of the domains of each of the n meeting-variables
+     * @param constraints Table of date constraints on the meeting times, which symmetry breaking adds to
+     * @param config      Size threshold for parallel work and the pool it runs in
+     * @return The solver's counters and phase timings, along with the solution if one exists
+     */
+    static SolveStats solveTable(int nMeetings, long first, long last, ConstraintTable constraints,
+                                 SolverConfig config) {
+        SolveStats stats = new SolveStats();
+
+        /* Map of variable numbers to a DateVar with full domain */
+        HashMap<Integer, DateVar> variables = IntStream.range(0, nMeetings).boxed().collect(
+                Collectors.toMap(i -> i, i -> new DateVar(i, DateDomain.of(first, last)), (a, b) -> b, HashMap::new));
+
+        /* Ordering constraints between interchangeable meetings only narrow the search, so any solution found
+         * for the augmented set is already indexed correctly for the caller's constraints */
+        breakSymmetries(nMeetings, constraints);
+
+        if (!constraints.isUnsatisfiable()
+            && nodeConsistency(constraints, variables, stats, config)
+            && constraintPropogation(constraints, variables, stats, config)) {
+            SolveStats.PhaseEvent phase = stats.beginPhase("rBackTracking");
+            stats.setSolution(rBackTracking(new HashMap<>(), new HashSet<>(variables.values()), constraints, stats,
+                                            config));
+            stats.endPhase(phase, 0);
+        }
+        return stats;
     }
 
 
@@ -64,22 +136,26 @@ public class CSP {
 
     private static ArrayList<LocalDate> rBackTracking(Map<Integer, LocalDate> assignments,
                                                       HashSet<DateVar> variables,
-                                                      Set<DateConstraint> constraints) {
-        if (isComplete(variables.size(), assignments, constraints))
+                                                      ConstraintTable constraints,
+                                                      SolveStats stats,
+                                                      SolverConfig config) {
+        if (isComplete(variables.size(), assignments, constraints, config))
             return new ArrayList<>(assignments.values());
 
-        DateVar unassigned = getUnassigned(assignments, variables);
+        DateVar unassigned = getUnassigned(assignments, variables, config);
         if (unassigned == null) return null;
 
         for (LocalDate value : unassigned.domain) {
             assignments.put(unassigned.id, value);
+            stats.node();
             // TODO: optimize this check if possible
-            if (checkAssignments(assignments, constraints)) {
-                ArrayList<LocalDate> result = rBackTracking(assignments, variables, constraints);
+            if (checkAssignments(assignments, constraints, config)) {
+                ArrayList<LocalDate> result = rBackTracking(assignments, variables, constraints, stats, config);
                 if (result != null)
                     return result;
             }
             assignments.remove(unassigned.id);
+            stats.backtrack();
         }
         return null;
     }
@@ -89,23 +165,29 @@ public class CSP {
      *
      * @param constraints all constraints in csp
      * @param variables   all variables in csp
+     * @param stats       counters for this solve
+     * @param config      when to run in parallel, and where
      * @return false if any of the variables determined to have an empty domain
      */
-    private static boolean nodeConsistency(Set<DateConstraint> constraints, HashMap<Integer, DateVar> variables) {
-
-        Set<UnaryDateConstraint> unaryConstraints = constraints.parallelStream().filter(rule -> rule.arity() == 1)
-                                                               .map(rule -> (UnaryDateConstraint) rule)
-                                                               .collect(Collectors.toSet());
-        for (UnaryDateConstraint rule : unaryConstraints) {
-            DateVar variable = variables.get(rule.L_VAL);
-            variable.domain = variable.domain.parallelStream()
-                                             .filter(d -> isConsistent(d, rule.R_VAL, rule.OP))
-                                             .collect(Collectors.toCollection(LinkedHashSet::new));
+    private static boolean nodeConsistency(ConstraintTable constraints, HashMap<Integer, DateVar> variables,
+                                           SolveStats stats, SolverConfig config) {
+        SolveStats.PhaseEvent phase = stats.beginPhase("nodeConsistency");
+        long pruned = 0;
+
+        int[] unaryConstraints = config.indexes(constraints.size(),
+                                                indexes -> indexes.filter(constraints::isUnary).toArray());
+        for (int rule : unaryConstraints) {
+            DateVar variable = variables.get(constraints.lVal(rule));
+            pruned += variable.domain.restrict(constraints.op(rule), constraints.rVal(rule));
             if (variable.domain.isEmpty())
-                return false;
+                break;
         }
+        stats.pruned(pruned);
 
-        return true;
+        /* "!=" constraints may have left some domains fragmented enough to be stored differently */
+        variables.values().forEach(variable -> variable.domain = DateDomain.compact(variable.domain));
+        stats.endPhase(phase, pruned);
+        return variables.values().stream().noneMatch(variable -> variable.domain.isEmpty());
     }
 
     /**
@@ -114,50 +196,214 @@ public class CSP {
      *
      * @param constraints all constraints in CSP
      * @param variables   all variables in CSP
+     * @param stats       counters for this solve
+     * @param config      when to run in parallel, and where
      * @return false if any of the variables determined to have an empty domain at any point
      */
-    private static boolean constraintPropogation(Set<DateConstraint> constraints, HashMap<Integer, DateVar> variables) {
+    private static boolean constraintPropogation(ConstraintTable constraints, HashMap<Integer, DateVar> variables,
+                                                 SolveStats stats, SolverConfig config) {
+        SolveStats.PhaseEvent phase = stats.beginPhase("constraintPropogation");
+        long pruned = 0;
         /* Map all the "neighbor" relationships and make a queue of nodes representing these relationships */
         Queue<arcNode> nodeQueue = new ArrayDeque<>();
-        constraints.parallelStream()
-                   .filter(d -> d.arity() == 2)
-                   .map(d -> (BinaryDateConstraint) d)
-                   .forEachOrdered(rule -> handleArcs(variables, nodeQueue, rule));
+        int[] binaryConstraints = config.indexes(constraints.size(),
+                                                 indexes -> indexes.filter(rule -> !constraints.isUnary(rule))
+                                                                   .toArray());
+        for (int rule : binaryConstraints)
+            handleArcs(variables, nodeQueue, constraints.lVal(rule), constraints.op(rule), constraints.rVar(rule));
 
         /* Go through the nodeQueue and remove all inconsistent values */
-        while (!nodeQueue.isEmpty()) {
+        boolean consistent = true;
+        while (consistent && !nodeQueue.isEmpty()) {
             arcNode pair = nodeQueue.poll();
             DateVar tail = pair.left, head = pair.right;
-            /* Collect all tail's domain elements that have no suitable value in the head's domain */
-            Set<LocalDate> inconsistent = tail.domain.parallelStream()
-                                                     .filter(lDate -> head.domain.stream().noneMatch(
-                                                             rDate -> isConsistent(lDate, rDate, pair.op)))
-                                                     .collect(Collectors.toCollection(LinkedHashSet::new));
+            /* Remove all tail's domain elements that have no suitable value in the head's domain */
+            long removed = revise(tail, head, pair.op);
+            stats.arcRevision();
+            pruned += removed;
 
-            tail.domain.removeAll(inconsistent);
             // we know the problem to be unsolvable if a variable has no domain
-            if (tail.domain.isEmpty())
-                return false;
+            consistent = !tail.domain.isEmpty();
 
             // If domain changed, re-add arc neighbors->tail to queue
-            if (!inconsistent.isEmpty())
+            if (removed > 0 && consistent)
                 tail.neighbors.forEach(
                         (key, value) -> { if (key != head) nodeQueue.add(new arcNode(key, tail, opInverse(value))); });
         }
-        return true;
+        stats.pruned(pruned);
+        stats.endPhase(phase, pruned);
+        return consistent;
+    }
+
+    /**
+     * Arc revision done on whole domains rather than value by value: for the ordering operators only the
+     * head's earliest / latest date matters, "!=" only prunes once the head is down to a single date, and
+     * "==" keeps the dates both domains have in common.
+     *
+     * @param tail variable whose domain is being pruned
+     * @param head variable on the other end of the arc
+     * @param op   relationship tail op head that must be satisfiable
+     * @return the number of days removed from tail's domain
+     */
+    private static long revise(DateVar tail, DateVar head, String op) {
+        switch (op) {
+            case "<":
+            case "<=": return tail.domain.restrict(op, head.domain.max());
+            case ">":
+            case ">=": return tail.domain.restrict(op, head.domain.min());
+            case "!=": return head.domain.min() == head.domain.max() ? tail.domain.restrict(op, head.domain.min()) : 0;
+            case "==":
+                DateDomain common = tail.domain.intersect(head.domain);
+                long removed = common == tail.domain ? 0 : tail.domain.size() - common.size();
+                tail.domain = common;
+                return removed;
+        }
+        return 0;
     }
 
     private static void handleArcs(HashMap<Integer, DateVar> variables,
                                    Queue<arcNode> nodeQueue,
-                                   BinaryDateConstraint rule) {
+                                   int lIndex, String op, int rIndex) {
         DateVar lVal, rVal;
-        lVal = variables.get(rule.L_VAL);
-        rVal = variables.get(rule.R_VAL);
+        lVal = variables.get(lIndex);
+        rVal = variables.get(rIndex);
+
+        lVal.neighbors.put(rVal, op);
+        rVal.neighbors.put(lVal, opInverse(op));
+        nodeQueue.add(new arcNode(lVal, rVal, op));
+        nodeQueue.add(new arcNode(rVal, lVal, opInverse(op)));
+    }
+
+
+    /*---------------------------------------------------------------
+     * Symmetry Breaking
+     *-------------------------------------------------------------*/
+
+
+    /**
+     * Finds classes of interchangeable meetings (those for which swapping the two variable indexes maps the
+     * constraint set onto itself) and chains each class with ordering constraints, so that backtracking only
+     * explores one of the permutations of their dates.
+     *
+     * @param nMeetings   number of variables in csp
+     * @param constraints all constraints in csp, to which the symmetry breaking constraints are added
+     */
+    private static void breakSymmetries(int nMeetings, ConstraintTable constraints) {
+        /* Constraints each variable appears in */
+        int[][] incident = incidence(nMeetings, constraints);
+
+        /* Cheap signature first, only variables sharing one can possibly be interchangeable */
+        Map<String, List<Integer>> buckets = IntStream.range(0, nMeetings).boxed().collect(
+                Collectors.groupingBy(i -> signature(i, incident[i], constraints), HashMap::new, Collectors.toList()));
+
+        for (List<Integer> bucket : buckets.values()) {
+            List<Integer> remaining = new ArrayList<>(bucket);
+            while (remaining.size() > 1) {
+                int rep = remaining.remove(0);
+                List<Integer> interchangeable = new ArrayList<>(List.of(rep));
+                remaining.removeIf(other -> isSwappable(rep, other, incident, constraints)
+                                            && interchangeable.add(other));
+                Collections.sort(interchangeable);
+
+                for (int k = 1; k < interchangeable.size(); k++) {
+                    int lVal = interchangeable.get(k - 1), rVal = interchangeable.get(k);
+                    List<Integer> between = relations(lVal, rVal, incident[lVal], constraints);
+                    if (between.isEmpty())
+                        constraints.addBinary(lVal, ConstraintTable.opCode("<="), rVal);
+                    else if (between.stream().noneMatch(rule -> constraints.op(rule).equals("=="))) {
+                        /* Strict ordering implies the inequality, and only one arc per pair is propagated */
+                        between.forEach(rule -> constraints.setBinary(rule, lVal, "<", rVal));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return for each variable, the indexes of the constraints it appears in
+     */
+    private static int[][] incidence(int nMeetings, ConstraintTable constraints) {
+        int[] degree = new int[nMeetings];
+        for (int rule = 0; rule < constraints.size(); rule++) {
+            degree[constraints.lVal(rule)]++;
+            if (!constraints.isUnary(rule)) degree[constraints.rVar(rule)]++;
+        }
+
+        int[][] incident = new int[nMeetings][];
+        for (int i = 0; i < nMeetings; i++) {
+            incident[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for (int rule = 0; rule < constraints.size(); rule++) {
+            int lVal = constraints.lVal(rule);
+            incident[lVal][degree[lVal]++] = rule;
+            if (!constraints.isUnary(rule)) {
+                int rVal = constraints.rVar(rule);
+                incident[rVal][degree[rVal]++] = rule;
+            }
+        }
+        return incident;
+    }
+
+    /**
+     * @return true if exchanging variables a and b leaves the constraint set unchanged (only the constraints
+     * that a or b appear in can change)
+     */
+    private static boolean isSwappable(int a, int b, int[][] incident, ConstraintTable constraints) {
+        Set<Integer> touched = IntStream.concat(Arrays.stream(incident[a]), Arrays.stream(incident[b]))
+                                        .boxed()
+                                        .collect(Collectors.toSet());
+
+        Set<String> before = touched.stream().map(rule -> canonicalKey(constraints, rule, -1, -1))
+                                    .collect(Collectors.toSet());
+        Set<String> after = touched.stream().map(rule -> canonicalKey(constraints, rule, a, b))
+                                   .collect(Collectors.toSet());
+        return before.equals(after);
+    }
 
-        lVal.neighbors.put(rVal, rule.OP);
-        rVal.neighbors.put(lVal, opInverse(rule.OP));
-        nodeQueue.add(new arcNode(lVal, rVal, rule.OP));
-        nodeQueue.add(new arcNode(rVal, lVal, opInverse(rule.OP)));
+    /**
+     * Builds a key that is identical for equivalent constraints, i.e. "1 < 0" and "0 > 1", optionally after
+     * exchanging the variables a and b.
+     */
+    private static String canonicalKey(ConstraintTable constraints, int rule, int a, int b) {
+        int lVal = swapIndex(constraints.lVal(rule), a, b);
+        String op = constraints.op(rule);
+        if (constraints.isUnary(rule))
+            return lVal + " " + op + " @" + constraints.rVal(rule);
+
+        int rVal = swapIndex(constraints.rVar(rule), a, b);
+        return lVal < rVal
+               ? lVal + " " + op + " " + rVal
+               : rVal + " " + opInverse(op) + " " + lVal;
+    }
+
+    private static int swapIndex(int var, int a, int b) {
+        return var == a ? b : var == b ? a : var;
+    }
+
+    /* Variables whose unary constraints or binary operators differ can never be exchanged */
+    private static String signature(int var, int[] incident, ConstraintTable constraints) {
+        return Arrays.stream(incident)
+                     .mapToObj(rule -> constraints.isUnary(rule)
+                                       ? constraints.op(rule) + " " + constraints.rVal(rule)
+                                       : "# " + (constraints.lVal(rule) == var
+                                                 ? constraints.op(rule)
+                                                 : opInverse(constraints.op(rule))))
+                     .sorted()
+                     .collect(Collectors.joining(","));
+    }
+
+    /**
+     * @return indexes of existing "==" and "!=" constraints between lVal and rVal (interchangeable variables
+     * can't be related by any other operator)
+     */
+    private static List<Integer> relations(int lVal, int rVal, int[] incident, ConstraintTable constraints) {
+        return Arrays.stream(incident)
+                     .filter(rule -> !constraints.isUnary(rule))
+                     .filter(rule -> constraints.op(rule).equals("==") || constraints.op(rule).equals("!="))
+                     .filter(rule -> constraints.lVal(rule) == rVal || constraints.rVar(rule) == rVal)
+                     .boxed()
+                     .collect(Collectors.toList());
     }
 
 
@@ -166,38 +412,39 @@ public class CSP {
      *-------------------------------------------------------------*/
 
 
-    private static boolean checkAssignments(Map<Integer, LocalDate> assignments, Set<DateConstraint> constraints) {
-        return constraints.parallelStream().allMatch(rule -> {
-            LocalDate lVal, rVal;
-            lVal = assignments.get(rule.L_VAL);
-            rVal = rule.arity() == 1
-                   ? ((UnaryDateConstraint) rule).R_VAL
-                   : assignments.get(((BinaryDateConstraint) rule).R_VAL);
-            if (lVal == null || rVal == null) return true;
+    private static boolean checkAssignments(Map<Integer, LocalDate> assignments, ConstraintTable constraints,
+                                            SolverConfig config) {
+        return config.indexes(constraints.size(), indexes -> indexes.allMatch(rule -> {
+            LocalDate lDate = assignments.get(constraints.lVal(rule));
+            if (lDate == null) return true;
+            /* Unary constraints hold epoch days already, so no date is made for them */
+            if (constraints.isUnary(rule))
+                return isConsistent(lDate.toEpochDay(), constraints.rVal(rule), constraints.op(rule));
 
-            return isConsistent(lVal, rVal, rule.OP);
-        });
+            LocalDate rDate = assignments.get(constraints.rVar(rule));
+            return rDate == null || isConsistent(lDate.toEpochDay(), rDate.toEpochDay(), constraints.op(rule));
+        }));
     }
 
     /**
-     * @param lVal left hand date of constraint
-     * @param rVal right hand date of constraint
-     * @param op   relationship between the two dates
+     * @param lVal left hand epoch day of constraint
+     * @param rVal right hand epoch day of constraint
+     * @param op   relationship between the two days
      * @return if the given values satisfy the given constraint
      */
-    private static boolean isConsistent(LocalDate lVal, LocalDate rVal, String op) {
+    private static boolean isConsistent(long lVal, long rVal, String op) {
         switch (op) {
-            case ">": if (!lVal.isAfter(rVal)) return false;
+            case ">": if (lVal <= rVal) return false;
                 break;
-            case "<": if (!lVal.isBefore(rVal)) return false;
+            case "<": if (lVal >= rVal) return false;
                 break;
-            case ">=": if (lVal.isBefore(rVal)) return false;
+            case ">=": if (lVal < rVal) return false;
                 break;
-            case "<=": if (lVal.isAfter(rVal)) return false;
+            case "<=": if (lVal > rVal) return false;
                 break;
-            case "==": if (!lVal.isEqual(rVal)) return false;
+            case "==": if (lVal != rVal) return false;
                 break;
-            case "!=": if (lVal.isEqual(rVal)) return false;
+            case "!=": if (lVal == rVal) return false;
                 break;
         }
         return true; // This should never happen
@@ -223,17 +470,17 @@ public class CSP {
 
 
     /* Return the next unassigned variable */
-    private static DateVar getUnassigned(Map<Integer, LocalDate> assignments, HashSet<DateVar> variables) {
-        return variables.parallelStream()
-                        .filter(variable -> !assignments.containsKey(variable.id))
-                        .findFirst()
-                        .orElse(null);
+    private static DateVar getUnassigned(Map<Integer, LocalDate> assignments, HashSet<DateVar> variables,
+                                         SolverConfig config) {
+        return config.elements(variables, stream -> stream.filter(variable -> !assignments.containsKey(variable.id))
+                                                          .findFirst()
+                                                          .orElse(null));
     }
 
     /* Check if this is a complete solution */
     private static boolean isComplete(int nMeetings, Map<Integer, LocalDate> assignments,
-                                      Set<DateConstraint> constraints) {
-        return nMeetings == assignments.size() && checkAssignments(assignments, constraints);
+                                      ConstraintTable constraints, SolverConfig config) {
+        return nMeetings == assignments.size() && checkAssignments(assignments, constraints, config);
     }
 
 
@@ -245,12 +492,12 @@ public class CSP {
 
     private static class DateVar {
         int id;
-        LinkedHashSet<LocalDate> domain;
+        DateDomain domain;
         HashMap<DateVar, String> neighbors = new HashMap<>();
 
-        DateVar(int meeting, Set<LocalDate> dateRange) {
+        DateVar(int meeting, DateDomain domain) {
             id = meeting;
-            domain = new LinkedHashSet<>(dateRange);
+            this.domain = domain;
         }
     }
 
@@ -0,0 +1,215 @@
+package csp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * CSPInstanceGenerator: seeded generator of random calendar problems for
+ * benchmarking {@link CSP#solve}. Satisfiable instances are built around a
+ * hidden "planted" schedule that every generated constraint agrees with;
+ * unsatisfiable ones additionally get a cycle of strict orderings between
+ * a few meetings (a < b < ... <= a), which propagation can only refute by
+ * shaving dates off of the cycle's domains one arc at a time.
+ */
+public class CSPInstanceGenerator {
+
+    /**
+     * Operator mixes that can be given to the generator
+     */
+    public static final String MIXED = "mixed", ORDERING = "ordering", EQUALITY = "equality";
+
+    /* Probability that a meeting gets a unary constraint */
+    private static final double UNARY_RATIO = 0.5;
+
+    private static final String[] ALL_OPS = {"==", "!=", "<", "<=", ">", ">="};
+    private static final String[] ORDERING_OPS = {"<", "<=", ">", ">="};
+    private static final String[] EQUALITY_OPS = {"==", "!="};
+
+    private final Random random;
+    private final int nMeetings, rangeDays;
+    private final double density, satisfiableRatio;
+    private final String[] ops;
+
+    /**
+     * Constructs a generator whose sequence of instances is fully determined by its arguments.
+     *
+     * @param seed             Seed of the generator's random number generator
+     * @param nMeetings        Number of meetings in each instance
+     * @param rangeDays        Number of days in the date range of each instance
+     * @param density          Probability that any given pair of meetings is constrained
+     * @param opMix            One of MIXED, ORDERING or EQUALITY
+     * @param satisfiableRatio Fraction of the generated instances that are satisfiable
+     */
+    public CSPInstanceGenerator(long seed, int nMeetings, int rangeDays, double density, String opMix,
+                                double satisfiableRatio) {
+        if (nMeetings < 1 || rangeDays < 1 || density < 0 || density > 1) {
+            throw new IllegalArgumentException("Invalid instance parameters");
+        }
+
+        random = new Random(seed);
+        this.nMeetings = nMeetings;
+        this.rangeDays = rangeDays;
+        this.density = density;
+        this.satisfiableRatio = satisfiableRatio;
+        switch (opMix) {
+            case MIXED: ops = ALL_OPS;
+                break;
+            case ORDERING: ops = ORDERING_OPS;
+                break;
+            case EQUALITY: ops = EQUALITY_OPS;
+                break;
+            default: throw new IllegalArgumentException("Invalid operator mix");
+        }
+    }
+
+    /**
+     * @return The next random instance
+     */
+    public Instance next() {
+        LocalDate rangeStart = LocalDate.of(2019, 1, 1), rangeEnd = rangeStart.plusDays(rangeDays - 1);
+        long[] planted = random.longs(nMeetings, 0, rangeDays).toArray();
+        Set<DateConstraint> constraints = new HashSet<>();
+
+        for (int i = 0; i < nMeetings; i++) {
+            if (random.nextDouble() < UNARY_RATIO) {
+                long day = random.nextInt(rangeDays);
+                constraints.add(new UnaryDateConstraint(i, plantedOp(planted[i], day),
+                                                        rangeStart.plusDays(day)));
+            }
+            for (int j = i + 1; j < nMeetings; j++) {
+                if (random.nextDouble() < density)
+                    constraints.add(new BinaryDateConstraint(i, plantedOp(planted[i], planted[j]), j));
+            }
+        }
+
+        boolean satisfiable = nMeetings < 2 || random.nextDouble() < satisfiableRatio;
+        if (!satisfiable) {
+            // Cycles of 3+ meetings, so no pair of meetings ends up with two constraints between them; with
+            // only 2 meetings the cycle is that pair, ordered both ways
+            int length = nMeetings < 3 ? 2 : 3 + random.nextInt(Math.min(nMeetings - 2, 3));
+            List<Integer> cycle = new ArrayList<>();
+            while (cycle.size() < length) {
+                int meeting = random.nextInt(nMeetings);
+                if (!cycle.contains(meeting)) cycle.add(meeting);
+            }
+            for (int k = 0; k < length; k++) {
+                int lVal = cycle.get(k), rVal = cycle.get((k + 1) % length);
+                constraints.removeIf(rule -> rule.arity() == 2 && touchesBoth(rule, lVal, rVal));
+            }
+            for (int k = 0; k < length; k++) {
+                int lVal = cycle.get(k), rVal = cycle.get((k + 1) % length);
+                constraints.add(new BinaryDateConstraint(lVal, k == length - 1 ? "<=" : "<", rVal));
+            }
+        }
+
+        return new Instance(nMeetings, rangeStart, rangeEnd, constraints, satisfiable);
+    }
+
+    /* Random operator out of the mix that holds between the two planted dates */
+    private String plantedOp(long lVal, long rVal) {
+        while (true) {
+            String op = ops[random.nextInt(ops.length)];
+            switch (op) {
+                case "==": if (lVal == rVal) return op;
+                    break;
+                case "!=": if (lVal != rVal) return op;
+                    break;
+                case "<": if (lVal < rVal) return op;
+                    break;
+                case "<=": if (lVal <= rVal) return op;
+                    break;
+                case ">": if (lVal > rVal) return op;
+                    break;
+                case ">=": if (lVal >= rVal) return op;
+                    break;
+            }
+        }
+    }
+
+    private static boolean touchesBoth(DateConstraint rule, int a, int b) {
+        int rVal = ((BinaryDateConstraint) rule).R_VAL;
+        return (rule.L_VAL == a && rVal == b) || (rule.L_VAL == b && rVal == a);
+    }
+
+
+    /*---------------------------------------------------------------
+     * Instances
+     *-------------------------------------------------------------*/
+
+
+    /**
+     * A single generated problem, with everything needed to call {@link CSP#solve} on it.
+     * Instances can be dumped to and loaded from a plain text file, laid out as:
+     * nMeetings rangeStart rangeEnd satisfiable
+     * followed by one constraint per line, as printed by DateConstraint.toString()
+     */
+    public static class Instance {
+
+        public final int nMeetings;
+        public final LocalDate rangeStart, rangeEnd;
+        public final Set<DateConstraint> constraints;
+        public final boolean satisfiable;
+
+        Instance(int nMeetings, LocalDate rangeStart, LocalDate rangeEnd, Set<DateConstraint> constraints,
+                 boolean satisfiable) {
+            this.nMeetings = nMeetings;
+            this.rangeStart = rangeStart;
+            this.rangeEnd = rangeEnd;
+            this.constraints = constraints;
+            this.satisfiable = satisfiable;
+        }
+
+        public List<LocalDate> solve() {
+            return CSP.solve(nMeetings, rangeStart, rangeEnd, constraints);
+        }
+
+        public SolveStats solveWithStats() {
+            return CSP.solveWithStats(nMeetings, rangeStart, rangeEnd, constraints);
+        }
+
+        /**
+         * @param file Text file to (over)write with this instance
+         */
+        public void write(Path file) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(file)) {
+                out.write(nMeetings + " " + rangeStart + " " + rangeEnd + " " + satisfiable);
+                out.newLine();
+                for (DateConstraint rule : constraints) {
+                    out.write(rule.toString());
+                    out.newLine();
+                }
+            }
+        }
+
+        /**
+         * @param file Text file previously written by {@link #write(Path)}
+         * @return The instance stored in the file
+         */
+        public static Instance read(Path file) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file)) {
+                String[] header = in.readLine().trim().split(" ");
+                Set<DateConstraint> constraints = new HashSet<>();
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    String[] parts = line.trim().split(" ");
+                    if (parts.length != 3) continue;
+                    int lVal = Integer.parseInt(parts[0]);
+                    constraints.add(parts[2].contains("-")
+                                    ? new UnaryDateConstraint(lVal, parts[1], LocalDate.parse(parts[2]))
+                                    : new BinaryDateConstraint(lVal, parts[1], Integer.parseInt(parts[2])));
+                }
+                return new Instance(Integer.parseInt(header[0]), LocalDate.parse(header[1]),
+                                    LocalDate.parse(header[2]), constraints, Boolean.parseBoolean(header[3]));
+            }
+        }
+    }
+
+}
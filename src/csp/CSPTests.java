@@ -5,11 +5,17 @@ import static org.junit.Assert.*;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 public class CSPTests {
     
@@ -526,5 +532,248 @@ public class CSPTests {
 
         assertNull(solution);
     }
-    
+
+    @Test
+    public void CSP_t20() {
+        final int N_CONS = 12;
+        Set<DateConstraint> constraints = new HashSet<>();
+
+        for (int i = 0; i < N_CONS; i++) {
+            for (int j = i + 1; j < N_CONS; j++) {
+                constraints.add(new BinaryDateConstraint(i, "!=", j));
+            }
+        }
+
+        // Twelve interchangeable sessions that must all be on different days
+        // of an eleven day window: pigeonhole, only tractable if the permutations
+        // of the sessions aren't all explored
+        List<LocalDate> solution = CSP.solve(
+            N_CONS,
+            LocalDate.of(2019, 1, 1),
+            LocalDate.of(2019, 1, 11),
+            constraints
+        );
+
+        assertNull(solution);
+    }
+
+    @Test
+    public void CSP_t21() {
+        final int N_CONS = 20;
+        Set<DateConstraint> constraints = new HashSet<>();
+
+        for (int i = 1; i < N_CONS; i++) {
+            constraints.add(new BinaryDateConstraint(i, ">", 0));
+            constraints.add(new UnaryDateConstraint(i, "!=", LocalDate.of(2019, 1, 10)));
+            for (int j = i + 1; j < N_CONS; j++) {
+                constraints.add(new BinaryDateConstraint(i, "!=", j));
+            }
+        }
+
+        // A kickoff meeting followed by a workshop series of identical sessions
+        List<LocalDate> solution = CSP.solve(
+            N_CONS,
+            LocalDate.of(2019, 1, 1),
+            LocalDate.of(2019, 1, 21),
+            constraints
+        );
+
+        // Example Solution:
+        // [2019-01-01, 2019-01-02, ..., 2019-01-09, 2019-01-11, ..., 2019-01-21]
+        testSolution(solution, constraints);
+    }
+
+    @Test
+    public void CSP_t22() {
+        Set<DateConstraint> constraints = new HashSet<>(
+            Arrays.asList(
+                new UnaryDateConstraint(0, ">", LocalDate.of(1999, 12, 31)),
+                new UnaryDateConstraint(0, "!=", LocalDate.of(2000, 1, 1)),
+                new UnaryDateConstraint(1, "<", LocalDate.of(2000, 1, 4)),
+                new UnaryDateConstraint(2, "!=", LocalDate.of(2000, 1, 3)),
+                new BinaryDateConstraint(0, "<", 1),
+                new BinaryDateConstraint(2, "==", 0),
+                new BinaryDateConstraint(3, ">", 2)
+            )
+        );
+
+        // A century-long range that the constraints cut down to a couple of days
+        List<LocalDate> solution = CSP.solve(
+            4,
+            LocalDate.of(1950, 1, 1),
+            LocalDate.of(2049, 12, 31),
+            constraints
+        );
+
+        // Example Solution:
+        // [2000-01-02, 2000-01-03, 2000-01-02, 2049-12-31]
+        testSolution(solution, constraints);
+    }
+
+    @Test
+    public void CSP_t23() {
+        Set<DateConstraint> constraints = new HashSet<>(
+            Arrays.asList(
+                new UnaryDateConstraint(0, ">", LocalDate.of(2019, 1, 3)),
+                new BinaryDateConstraint(1, ">", 0),
+                new BinaryDateConstraint(2, "!=", 1)
+            )
+        );
+
+        // Same solution as solve, plus counters for each phase of the solver
+        SolveStats stats = CSP.solveWithStats(
+            3,
+            LocalDate.of(2019, 1, 1),
+            LocalDate.of(2019, 1, 5),
+            constraints
+        );
+
+        testSolution(stats.getSolution(), constraints);
+        // 0 loses 01-01..01-03 and 01-05, 1 loses everything but 01-05,
+        // then 2 can't be on 01-05 either
+        assertEquals(3 + 1 + 4 + 1, stats.getValuesPruned());
+        assertTrue(stats.getArcRevisions() >= 4);
+        assertTrue(stats.getNodes() >= 3);
+    }
+
+    @Test
+    public void CSP_t24() throws IOException {
+        CSPInstanceGenerator generator = new CSPInstanceGenerator(
+            282,                        // Seed
+            6,                          // Meetings per instance
+            60,                         // Days in the date range
+            0.2,                        // Chance that two meetings are constrained
+            CSPInstanceGenerator.MIXED, // Any of the operators
+            0.5                         // Half of the instances are satisfiable
+        );
+        Path file = Files.createTempFile("csp", ".txt");
+
+        // Generated instances agree with their satisfiable flag, and survive
+        // being dumped to disk and loaded back
+        for (int i = 0; i < 10; i++) {
+            CSPInstanceGenerator.Instance instance = generator.next();
+            instance.write(file);
+            CSPInstanceGenerator.Instance loaded = CSPInstanceGenerator.Instance.read(file);
+            assertEquals(instance.constraints.stream().map(Object::toString).collect(Collectors.toSet()),
+                         loaded.constraints.stream().map(Object::toString).collect(Collectors.toSet()));
+
+            List<LocalDate> solution = loaded.solve();
+            if (instance.satisfiable) {
+                testSolution(solution, instance.constraints);
+            }
+            else {
+                assertNull(solution);
+            }
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void CSP_t25() throws IOException {
+        Set<DateConstraint> constraints = new HashSet<>(
+            Arrays.asList(
+                new UnaryDateConstraint(0, ">", LocalDate.of(2019, 1, 1)),
+                new UnaryDateConstraint(1, ">", LocalDate.of(2019, 2, 1)),
+                new UnaryDateConstraint(2, ">", LocalDate.of(2019, 3, 1)),
+                new UnaryDateConstraint(3, ">", LocalDate.of(2019, 4, 1)),
+                new UnaryDateConstraint(4, ">", LocalDate.of(2019, 5, 1)),
+                new BinaryDateConstraint(0, ">", 4),
+                new BinaryDateConstraint(1, ">", 3),
+                new BinaryDateConstraint(2, "!=", 3),
+                new BinaryDateConstraint(4, "!=", 0),
+                new BinaryDateConstraint(3, ">", 2)
+            )
+        );
+        Path file = Files.createTempFile("csp", ".bin");
+
+        // Same problem as CSP_t9, solved from its binary problem file
+        ProblemFile.write(file, 5, LocalDate.of(2019, 1, 1), LocalDate.of(2019, 6, 30), constraints);
+        ProblemFile problem = ProblemFile.open(file);
+        assertEquals(5, problem.getMeetings());
+        assertEquals(LocalDate.of(2019, 6, 30), problem.getRangeEnd());
+        assertEquals(constraints.size(), problem.getConstraintCount());
+
+        testSolution(problem.solve(), constraints);
+        Files.delete(file);
+    }
+
+    @Test
+    public void CSP_t26() {
+        Set<DateConstraint> constraints = new HashSet<>(
+            Arrays.asList(
+                new UnaryDateConstraint(0, ">", LocalDate.of(2019, 1, 1)),
+                new UnaryDateConstraint(1, ">", LocalDate.of(2019, 2, 1)),
+                new UnaryDateConstraint(2, ">", LocalDate.of(2019, 3, 1)),
+                new UnaryDateConstraint(3, ">", LocalDate.of(2019, 4, 1)),
+                new UnaryDateConstraint(4, ">", LocalDate.of(2019, 5, 1)),
+                new BinaryDateConstraint(0, ">", 4),
+                new BinaryDateConstraint(1, ">", 3),
+                new BinaryDateConstraint(2, "!=", 3),
+                new BinaryDateConstraint(4, "!=", 0),
+                new BinaryDateConstraint(3, ">", 2)
+            )
+        );
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        // Same problem as CSP_t9, with every loop forced onto a private pool, then none
+        List<LocalDate> solution = CSP.solve(5, LocalDate.of(2019, 1, 1), LocalDate.of(2019, 6, 30), constraints,
+                                             new SolverConfig(1, pool));
+        testSolution(solution, constraints);
+        solution = CSP.solve(5, LocalDate.of(2019, 1, 1), LocalDate.of(2019, 6, 30), constraints,
+                             SolverConfig.SEQUENTIAL);
+        testSolution(solution, constraints);
+        pool.shutdown();
+    }
+
+    @Test
+    public void CSP_t27() throws IOException {
+        Set<DateConstraint> constraints = new HashSet<>(
+            Arrays.asList(
+                new UnaryDateConstraint(0, ">", LocalDate.of(2019, 1, 1)),
+                new BinaryDateConstraint(0, "!=", 1)
+            )
+        );
+        Path file = Files.createTempFile("csp", ".bin");
+        ProblemFile.write(file, 2, LocalDate.of(2019, 1, 1), LocalDate.of(2019, 6, 30), constraints);
+        byte[] written = Files.readAllBytes(file);
+
+        // Corrupt counts, variable indexes and operators are all rejected with an IOException:
+        // count, then the first record's lVal, then its op
+        int[] offsets = {32, ProblemFile.HEADER_BYTES, ProblemFile.HEADER_BYTES + 5};
+        long[][] values = {{-1, Long.MAX_VALUE / 8, 3}, {-1, 2}, {-1, ConstraintTable.OPS.length}};
+        for (int field = 0; field < offsets.length; field++) {
+            for (long value : values[field]) {
+                ByteBuffer corrupt = ByteBuffer.wrap(written.clone());
+                if (field == 0) corrupt.putLong(offsets[field], value);
+                else if (field == 1) corrupt.putInt(offsets[field], (int) value);
+                else corrupt.put(offsets[field], (byte) value);
+                Files.write(file, corrupt.array());
+                try {
+                    ProblemFile.open(file).solve();
+                    fail();
+                }
+                catch (IOException e) {}
+            }
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void CSP_t28() throws IOException {
+        // A binary record comparing a meeting with itself is rejected
+        LocalDate start = LocalDate.of(2019, 1, 1), end = LocalDate.of(2019, 1, 31);
+        Path file = Files.createTempFile("csp", ".bin");
+        ProblemFile.write(file, 2, start, end,
+                          new HashSet<>(Arrays.asList(new BinaryDateConstraint(0, "<", 1))));
+        ByteBuffer corrupt = ByteBuffer.wrap(Files.readAllBytes(file));
+        corrupt.putInt(ProblemFile.HEADER_BYTES, 1);
+        Files.write(file, corrupt.array());
+        try {
+            ProblemFile.open(file).solve();
+            fail();
+        }
+        catch (IOException e) {}
+        Files.delete(file);
+    }
+
 }
@@ -0,0 +1,132 @@
+package csp;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * ConstraintTable: the solver's working copy of a problem's constraints,
+ * stored column by column in primitive arrays instead of one
+ * DateConstraint object per constraint. Constraint i reads as:
+ * lVal(i) op(i) rVal(i)
+ * where rVal is an epoch day for unary constraints and a meeting index
+ * for binary ones.
+ */
+class ConstraintTable {
+
+    /**
+     * The legal operators, indexed by the op codes stored in the table (and in problem files)
+     */
+    static final String[] OPS = {"==", "!=", "<", "<=", ">", ">="};
+
+    private int size;
+    private int[] lVals;
+    private byte[] ops;
+    private long[] rVals;
+    private final BitSet unary = new BitSet();
+    /* Set when a constraint no assignment can satisfy was left out of the table */
+    private boolean unsatisfiable;
+
+    ConstraintTable(int capacity) {
+        lVals = new int[Math.max(capacity, 1)];
+        ops = new byte[lVals.length];
+        rVals = new long[lVals.length];
+    }
+
+    /**
+     * @param constraints Date constraints on the meeting times
+     * @return a table holding the same constraints
+     */
+    static ConstraintTable of(Set<DateConstraint> constraints) {
+        ConstraintTable table = new ConstraintTable(constraints.size());
+        for (DateConstraint rule : constraints) {
+            if (rule.arity() == 1)
+                table.addUnary(rule.L_VAL, opCode(rule.OP), ((UnaryDateConstraint) rule).R_VAL.toEpochDay());
+            else if (rule.L_VAL != ((BinaryDateConstraint) rule).R_VAL)
+                table.addBinary(rule.L_VAL, opCode(rule.OP), ((BinaryDateConstraint) rule).R_VAL);
+            else {
+                /* A meeting compared with itself: always true, or for the strict operators always false */
+                int op = opCode(rule.OP);
+                table.unsatisfiable |= OPS[op].equals("<") || OPS[op].equals(">") || OPS[op].equals("!=");
+            }
+        }
+        return table;
+    }
+
+    int size() { return size; }
+
+    /**
+     * @return true if the problem held a constraint no assignment can satisfy, such as "0 < 0"
+     */
+    boolean isUnsatisfiable() { return unsatisfiable; }
+
+    boolean isUnary(int i) { return unary.get(i); }
+
+    int lVal(int i) { return lVals[i]; }
+
+    String op(int i) { return OPS[ops[i]]; }
+
+    long rVal(int i) { return rVals[i]; }
+
+    /**
+     * @return the right-operand meeting index of binary constraint i
+     */
+    int rVar(int i) { return (int) rVals[i]; }
+
+    void addUnary(int lVal, int op, long day) {
+        checkIndex(lVal);
+        add(lVal, op, day);
+        unary.set(size - 1);
+    }
+
+    void addBinary(int lVal, int op, int rVal) {
+        checkIndex(lVal);
+        if (rVal < 0) {
+            throw new IllegalArgumentException("Invalid variable index");
+        }
+        add(lVal, op, rVal);
+    }
+
+    /**
+     * Overwrites binary constraint i with lVal op rVal
+     */
+    void setBinary(int i, int lVal, String op, int rVal) {
+        lVals[i] = lVal;
+        ops[i] = (byte) opCode(op);
+        rVals[i] = rVal;
+    }
+
+    /**
+     * @param op one of the DateConstraint operators
+     * @return index of op in OPS
+     */
+    static int opCode(String op) {
+        for (int code = 0; code < OPS.length; code++) {
+            if (OPS[code].equals(op)) return code;
+        }
+        throw new IllegalArgumentException("Invalid constraint operator");
+    }
+
+    private void add(int lVal, int op, long rVal) {
+        if (op < 0 || op >= OPS.length) {
+            throw new IllegalArgumentException("Invalid constraint operator");
+        }
+        if (size == lVals.length) {
+            int capacity = Math.max(2 * size, 16);
+            lVals = Arrays.copyOf(lVals, capacity);
+            ops = Arrays.copyOf(ops, capacity);
+            rVals = Arrays.copyOf(rVals, capacity);
+        }
+        lVals[size] = lVal;
+        ops[size] = (byte) op;
+        rVals[size] = rVal;
+        size++;
+    }
+
+    private static void checkIndex(int lVal) {
+        if (lVal < 0) {
+            throw new IllegalArgumentException("Invalid variable index");
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package csp;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * DateDomain superclass: the set of dates still available to some
+ * meeting variable, stored as epoch days. Subclasses only differ in
+ * how those days are laid out in memory:
+ * BitSetDomain: one bit per day of the domain's span
+ * OR
+ * IntervalDomain: a sorted list of runs of consecutive days
+ * and the solver picks whichever is smaller for the domain at hand
+ * through {@link #of(long, long)} and {@link #compact(DateDomain)}.
+ */
+abstract class DateDomain implements Iterable<LocalDate> {
+
+    /**
+     * Returned by {@link #next(long)} when there is no later day in the domain
+     */
+    static final long NONE = Long.MAX_VALUE;
+
+    /* Rough memory cost of a single run in an IntervalDomain (a start and an end) */
+    private static final long RUN_BYTES = 2 * Long.BYTES;
+
+    abstract boolean isEmpty();
+
+    abstract long size();
+
+    /**
+     * @return the earliest epoch day of a non-empty domain
+     */
+    abstract long min();
+
+    /**
+     * @return the latest epoch day of a non-empty domain
+     */
+    abstract long max();
+
+    abstract boolean contains(long day);
+
+    /**
+     * @param from epoch day to start looking from (inclusive)
+     * @return the earliest epoch day in the domain that is not before from, or NONE
+     */
+    abstract long next(long from);
+
+    /**
+     * @param day epoch day contained in the domain
+     * @return the last epoch day of the run of consecutive days that day belongs to
+     */
+    abstract long runEnd(long day);
+
+    /**
+     * @return the number of runs of consecutive days, i.e. how fragmented the domain is
+     */
+    abstract int runs();
+
+    /**
+     * Removes all days from the domain that don't satisfy "domainDay op day"
+     *
+     * @param op  one of the DateConstraint operators
+     * @param day epoch day on the right hand side of the operator
+     * @return the number of days removed
+     */
+    abstract long restrict(String op, long day);
+
+    /**
+     * @param other domain to intersect with
+     * @return a domain holding only the days found in both domains, or this domain if
+     * nothing had to be removed from it
+     */
+    DateDomain intersect(DateDomain other) {
+        if (isEmpty()) return this;
+        if (other.isEmpty()) return fromRuns(new long[0], new long[0], 0);
+
+        int capacity = runs() + other.runs();
+        long[] starts = new long[capacity], ends = new long[capacity];
+        int n = 0;
+        long kept = 0;
+        long day = Math.max(min(), other.min()), last = Math.min(max(), other.max());
+
+        while (day <= last) {
+            day = next(day);
+            if (day > last) break;
+            long otherDay = other.next(day);
+            if (otherDay > last) break;
+            if (otherDay != day) {
+                day = otherDay;
+                continue;
+            }
+            long end = Math.min(Math.min(runEnd(day), other.runEnd(day)), last);
+            starts[n] = day;
+            ends[n++] = end;
+            kept += end - day + 1;
+            day = end + 1;
+        }
+
+        return kept == size() ? this : fromRuns(starts, ends, n);
+    }
+
+    @Override
+    public Iterator<LocalDate> iterator() {
+        return new Iterator<>() {
+            long day = isEmpty() ? NONE : min();
+
+            public boolean hasNext() { return day != NONE; }
+
+            public LocalDate next() {
+                if (day == NONE) throw new NoSuchElementException();
+                LocalDate result = LocalDate.ofEpochDay(day);
+                day = day == max() ? NONE : DateDomain.this.next(day + 1);
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (long day = isEmpty() ? NONE : min(); day != NONE; ) {
+            long end = runEnd(day);
+            if (result.length() > 1) result.append(", ");
+            result.append(LocalDate.ofEpochDay(day));
+            if (end != day) result.append("..").append(LocalDate.ofEpochDay(end));
+            day = end == max() ? NONE : next(end + 1);
+        }
+        return result.append("]").toString();
+    }
+
+
+    /*---------------------------------------------------------------
+     * Representation Choice
+     *-------------------------------------------------------------*/
+
+
+    /**
+     * @param first earliest epoch day of the domain (inclusive)
+     * @param last  latest epoch day of the domain (inclusive)
+     * @return a domain holding every day from first to last
+     */
+    static DateDomain of(long first, long last) {
+        if (last < first) return new IntervalDomain(new long[0], new long[0], 0);
+        return preferIntervals(1, last - first + 1)
+               ? new IntervalDomain(first, last)
+               : new BitSetDomain(first, last);
+    }
+
+    /**
+     * Builds the cheaper representation for the given sorted, disjoint runs of days
+     */
+    static DateDomain fromRuns(long[] starts, long[] ends, int n) {
+        if (n == 0 || preferIntervals(n, ends[n - 1] - starts[0] + 1))
+            return new IntervalDomain(starts, ends, n);
+        return new BitSetDomain(starts, ends, n);
+    }
+
+    /**
+     * Switches the given domain over to the other representation when pruning has made it the
+     * cheaper one by a wide margin (so domains don't flip back and forth).
+     *
+     * @param domain domain that may have been fragmented or shrunk by pruning
+     * @return the same domain, or an equivalent one in the other representation
+     */
+    static DateDomain compact(DateDomain domain) {
+        if (domain.isEmpty()) return domain;
+
+        int runs = domain.runs();
+        long span = domain.max() - domain.min() + 1;
+        boolean isIntervals = domain instanceof IntervalDomain;
+        if (isIntervals == preferIntervals(runs / 2, span) || isIntervals == preferIntervals(runs * 2, span))
+            return domain;
+
+        long[] starts = new long[runs], ends = new long[runs];
+        int n = 0;
+        for (long day = domain.min(); day != NONE; n++) {
+            starts[n] = day;
+            ends[n] = domain.runEnd(day);
+            day = ends[n] == domain.max() ? NONE : domain.next(ends[n] + 1);
+        }
+        return isIntervals ? new BitSetDomain(starts, ends, n) : new IntervalDomain(starts, ends, n);
+    }
+
+    private static boolean preferIntervals(long runs, long span) {
+        return span > Integer.MAX_VALUE || runs * RUN_BYTES < span / Byte.SIZE;
+    }
+
+}
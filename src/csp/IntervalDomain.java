@@ -0,0 +1,184 @@
+package csp;
+
+import java.util.Arrays;
+
+/**
+ * IntervalDomains store a date domain as a sorted list of disjoint,
+ * non-adjacent runs of epoch days, such as:
+ * [2019-01-01..2019-03-14, 2019-03-16..2049-12-31]
+ * which keeps multi-decade domains that are only cut up by a few
+ * constraints down to a handful of longs. Trimming either end of the
+ * domain is a binary search over the runs.
+ */
+class IntervalDomain extends DateDomain {
+
+    private long[] starts, ends;
+    /* The live runs are those in [lo, hi), so trimming from the front doesn't have to shift the arrays */
+    private int lo, hi;
+    private long size;
+
+    /**
+     * Constructs an IntervalDomain holding the single run first..last
+     */
+    IntervalDomain(long first, long last) {
+        this(new long[]{first}, new long[]{last}, 1);
+    }
+
+    /**
+     * Constructs an IntervalDomain from the first n of the given sorted, disjoint runs
+     */
+    IntervalDomain(long[] starts, long[] ends, int n) {
+        this.starts = Arrays.copyOf(starts, Math.max(n, 1));
+        this.ends = Arrays.copyOf(ends, Math.max(n, 1));
+        lo = 0;
+        hi = n;
+        for (int i = 0; i < n; i++)
+            size += ends[i] - starts[i] + 1;
+    }
+
+    @Override
+    boolean isEmpty() { return lo >= hi; }
+
+    @Override
+    long size() { return size; }
+
+    @Override
+    long min() { return starts[lo]; }
+
+    @Override
+    long max() { return ends[hi - 1]; }
+
+    @Override
+    boolean contains(long day) {
+        int i = floorRun(day);
+        return i >= lo && ends[i] >= day;
+    }
+
+    @Override
+    long next(long from) {
+        int i = floorRun(from);
+        if (i >= lo && ends[i] >= from) return from;
+        return i + 1 < hi ? starts[i + 1] : NONE;
+    }
+
+    @Override
+    long runEnd(long day) { return ends[floorRun(day)]; }
+
+    @Override
+    int runs() { return Math.max(hi - lo, 0); }
+
+    @Override
+    long restrict(String op, long day) {
+        long before = size;
+        switch (op) {
+            case "<": if (day != Long.MIN_VALUE) keepAtMost(day - 1); else clear();
+                break;
+            case "<=": keepAtMost(day);
+                break;
+            case ">": if (day != Long.MAX_VALUE) keepAtLeast(day + 1); else clear();
+                break;
+            case ">=": keepAtLeast(day);
+                break;
+            case "==": keepOnly(day);
+                break;
+            case "!=": remove(day);
+                break;
+        }
+        return before - size;
+    }
+
+
+    /*---------------------------------------------------------------
+     * Helper Methods
+     *-------------------------------------------------------------*/
+
+
+    /* Index of the last live run starting on or before day, or lo - 1 if there is none */
+    private int floorRun(long day) {
+        int low = lo, high = hi - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= day) low = mid + 1;
+            else high = mid - 1;
+        }
+        return high;
+    }
+
+    private boolean keepAtMost(long last) {
+        if (isEmpty() || max() <= last) return false;
+        int i = floorRun(last);
+        for (int j = Math.max(i + 1, lo); j < hi; j++)
+            size -= ends[j] - starts[j] + 1;
+        hi = Math.max(i + 1, lo);
+        if (i >= lo && ends[i] > last) {
+            size -= ends[i] - last;
+            ends[i] = last;
+        }
+        return true;
+    }
+
+    private boolean keepAtLeast(long first) {
+        if (isEmpty() || min() >= first) return false;
+        int i = floorRun(first);
+        for (int j = lo; j < i; j++)
+            size -= ends[j] - starts[j] + 1;
+        if (ends[i] >= first) {
+            size -= first - starts[i];
+            starts[i] = first;
+            lo = i;
+        }
+        else {
+            size -= ends[i] - starts[i] + 1;
+            lo = i + 1;
+        }
+        return true;
+    }
+
+    private boolean keepOnly(long day) {
+        if (isEmpty()) return false;
+        if (!contains(day)) return clear();
+        if (min() == day && max() == day) return false;
+        starts[lo] = ends[lo] = day;
+        hi = lo + 1;
+        size = 1;
+        return true;
+    }
+
+    private boolean clear() {
+        if (isEmpty()) return false;
+        hi = lo;
+        size = 0;
+        return true;
+    }
+
+    private boolean remove(long day) {
+        int i = floorRun(day);
+        if (i < lo || ends[i] < day) return false;
+        size--;
+
+        if (starts[i] == ends[i]) {
+            System.arraycopy(starts, i + 1, starts, i, hi - i - 1);
+            System.arraycopy(ends, i + 1, ends, i, hi - i - 1);
+            hi--;
+        }
+        else if (starts[i] == day) starts[i]++;
+        else if (ends[i] == day) ends[i]--;
+        else {
+            // Splitting the run in two needs one more slot
+            if (hi == starts.length) {
+                i -= lo;
+                starts = Arrays.copyOfRange(starts, lo, lo + 2 * (hi - lo));
+                ends = Arrays.copyOfRange(ends, lo, lo + 2 * (hi - lo));
+                hi -= lo;
+                lo = 0;
+            }
+            System.arraycopy(starts, i + 1, starts, i + 2, hi - i - 1);
+            System.arraycopy(ends, i, ends, i + 1, hi - i);
+            starts[i + 1] = day + 1;
+            ends[i] = day - 1;
+            hi++;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,249 @@
+package csp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ProblemFile: compact binary format for (very) large calendar problems,
+ * loaded by memory-mapping the file and copying its records straight into
+ * the solver's constraint table, without creating any DateConstraint
+ * objects along the way. Laid out as a 40 byte header:
+ * int magic ("CSPB"), int version, long rangeStart epoch day,
+ * long rangeEnd epoch day, int nMeetings, int record size, long count
+ * followed by count fixed-width (16 byte) constraint records:
+ * int lVal, byte kind (0 = unary, 1 = binary), byte op (index into
+ * ConstraintTable.OPS), short padding, long rVal (epoch day for unary
+ * constraints, meeting index for binary ones)
+ */
+public class ProblemFile {
+
+    static final int MAGIC = 0x43535042, VERSION = 1;
+    static final int HEADER_BYTES = 40, RECORD_BYTES = 16;
+
+    /* Records mapped at a time, so files over 2GB are read through a sliding window */
+    private static final long WINDOW_RECORDS = (Integer.MAX_VALUE / RECORD_BYTES) & ~0xFFFL;
+
+    private final Path file;
+    private final int nMeetings;
+    private final long rangeStart, rangeEnd, count;
+
+    private ProblemFile(Path file, int nMeetings, long rangeStart, long rangeEnd, long count) {
+        this.file = file;
+        this.nMeetings = nMeetings;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.count = count;
+    }
+
+    /**
+     * Opens a problem file, reading only its header
+     *
+     * @param file Problem file written by {@link Writer}
+     * @return The opened problem
+     * @throws IOException if the file can't be read or isn't a problem file
+     */
+    public static ProblemFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Not a CSP problem file: " + file);
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(28) != RECORD_BYTES)
+                throw new IOException("Not a CSP problem file: " + file);
+
+            long count = header.getLong(32);
+            if (count < 0) throw new IOException("Invalid constraint count in " + file);
+            if (count > (channel.size() - HEADER_BYTES) / RECORD_BYTES)
+                throw new IOException("Truncated CSP problem file: " + file);
+
+            return new ProblemFile(file, header.getInt(24), header.getLong(8), header.getLong(16), count);
+        }
+    }
+
+    public int getMeetings() { return nMeetings; }
+
+    public LocalDate getRangeStart() { return LocalDate.ofEpochDay(rangeStart); }
+
+    public LocalDate getRangeEnd() { return LocalDate.ofEpochDay(rangeEnd); }
+
+    public long getConstraintCount() { return count; }
+
+    /**
+     * Solves the problem held in this file, see {@link CSP#solve}
+     *
+     * @return A list of dates that satisfies each of the constraints for each of the n meetings,
+     * indexed by the variable they satisfy, or null if no solution exists.
+     */
+    public List<LocalDate> solve() throws IOException {
+        return solveWithStats().getSolution();
+    }
+
+    /**
+     * Solves the problem held in this file, see {@link CSP#solveWithStats}
+     */
+    public SolveStats solveWithStats() throws IOException {
+        return solveWithStats(SolverConfig.DEFAULT);
+    }
+
+    /**
+     * Solves the problem held in this file, see {@link CSP#solveWithStats}
+     *
+     * @param config Size threshold for parallel work and the pool it runs in
+     */
+    public SolveStats solveWithStats(SolverConfig config) throws IOException {
+        return CSP.solveTable(nMeetings, rangeStart, rangeEnd, load(), config);
+    }
+
+    /**
+     * Maps the records a window at a time and appends them to a new constraint table
+     */
+    ConstraintTable load() throws IOException {
+        if (count > Integer.MAX_VALUE - 8) throw new IOException("Too many constraints in " + file);
+
+        ConstraintTable table = new ConstraintTable((int) count);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long first = 0; first < count; first += WINDOW_RECORDS) {
+                long records = Math.min(WINDOW_RECORDS, count - first);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                      HEADER_BYTES + first * RECORD_BYTES,
+                                                      records * RECORD_BYTES);
+                for (int offset = 0; offset < records * RECORD_BYTES; offset += RECORD_BYTES) {
+                    int lVal = window.getInt(offset);
+                    int op = window.get(offset + 5);
+                    long rVal = window.getLong(offset + 8);
+                    if (lVal < 0 || lVal >= nMeetings
+                        || (window.get(offset + 4) != 0 && (rVal < 0 || rVal >= nMeetings || rVal == lVal)))
+                        throw new IOException("Invalid variable index in record " + (first + offset / RECORD_BYTES));
+                    if (op < 0 || op >= ConstraintTable.OPS.length)
+                        throw new IOException("Invalid operator in record " + (first + offset / RECORD_BYTES));
+
+                    if (window.get(offset + 4) == 0)
+                        table.addUnary(lVal, op, rVal);
+                    else
+                        table.addBinary(lVal, op, (int) rVal);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Writes a whole problem to a file in one go
+     *
+     * @param file        Problem file to (over)write
+     * @param nMeetings   The number of meetings that must be scheduled, indexed from 0 to n-1
+     * @param rangeStart  The start date (inclusive) of the domains of each of the n meeting-variables
+     * @param rangeEnd    The end date (inclusive) of the domains of each of the n meeting-variables
+     * @param constraints Date constraints on the meeting times
+     */
+    public static void write(Path file, int nMeetings, LocalDate rangeStart, LocalDate rangeEnd,
+                             Set<DateConstraint> constraints) throws IOException {
+        try (Writer writer = new Writer(file, nMeetings, rangeStart, rangeEnd)) {
+            for (DateConstraint rule : constraints) {
+                writer.add(rule);
+            }
+        }
+    }
+
+
+    /*---------------------------------------------------------------
+     * Writer
+     *-------------------------------------------------------------*/
+
+
+    /**
+     * Streams constraint records into a problem file through a fixed size buffer, so problems
+     * with millions of constraints never have to be held in memory while writing. The
+     * constraint count in the header is filled in on close.
+     */
+    public static class Writer implements Closeable {
+
+        private static final int BUFFER_RECORDS = 4096;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+        private final int nMeetings;
+        private long count;
+
+        /**
+         * @param file       Problem file to (over)write
+         * @param nMeetings  The number of meetings that must be scheduled, indexed from 0 to n-1
+         * @param rangeStart The start date (inclusive) of the domains of each of the n meeting-variables
+         * @param rangeEnd   The end date (inclusive) of the domains of each of the n meeting-variables
+         */
+        public Writer(Path file, int nMeetings, LocalDate rangeStart, LocalDate rangeEnd) throws IOException {
+            if (nMeetings < 0) {
+                throw new IllegalArgumentException("Invalid number of meetings");
+            }
+
+            this.nMeetings = nMeetings;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION)
+                  .putLong(rangeStart.toEpochDay()).putLong(rangeEnd.toEpochDay())
+                  .putInt(nMeetings).putInt(RECORD_BYTES)
+                  .putLong(0);
+        }
+
+        public void add(DateConstraint rule) throws IOException {
+            if (rule.arity() == 1)
+                addUnary(rule.L_VAL, rule.OP, ((UnaryDateConstraint) rule).R_VAL);
+            else
+                addBinary(rule.L_VAL, rule.OP, ((BinaryDateConstraint) rule).R_VAL);
+        }
+
+        public void addUnary(int lVal, String op, LocalDate rVal) throws IOException {
+            checkIndex(lVal);
+            record(lVal, 0, op, rVal.toEpochDay());
+        }
+
+        public void addBinary(int lVal, String op, int rVal) throws IOException {
+            checkIndex(lVal);
+            checkIndex(rVal);
+            if (lVal == rVal) {
+                throw new IllegalArgumentException("Invalid variable index");
+            }
+            record(lVal, 1, op, rVal);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, count), HEADER_BYTES - Long.BYTES);
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        private void record(int lVal, int kind, String op, long rVal) throws IOException {
+            if (buffer.remaining() < RECORD_BYTES) flush();
+            buffer.putInt(lVal).put((byte) kind).put((byte) ConstraintTable.opCode(op)).putShort((short) 0)
+                  .putLong(rVal);
+            count++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void checkIndex(int var) {
+            if (var < 0 || var >= nMeetings) {
+                throw new IllegalArgumentException("Invalid variable index");
+            }
+        }
+    }
+
+}
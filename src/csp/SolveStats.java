@@ -0,0 +1,150 @@
+package csp;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SolveStats: counters and per-phase wall times gathered during a single
+ * call to {@link CSP#solveWithStats}, along with the solution it found.
+ * Each phase is also reported as a JDK Flight Recorder event, which costs
+ * next to nothing unless a recording has the "csp.*" events enabled.
+ */
+public class SolveStats {
+
+    private List<LocalDate> solution;
+    private long nodes, backtracks, arcRevisions, valuesPruned;
+    private long nodeConsistencyNanos, propagationNanos, backtrackingNanos;
+
+    SolveStats() {}
+
+    /**
+     * @return The solution found by the solver, or null if no solution exists
+     */
+    public List<LocalDate> getSolution() { return solution; }
+
+    /**
+     * @return The number of values tried for a variable during backtracking
+     */
+    public long getNodes() { return nodes; }
+
+    /**
+     * @return The number of assignments that had to be undone during backtracking
+     */
+    public long getBacktracks() { return backtracks; }
+
+    /**
+     * @return The number of arcs revised during constraint propagation
+     */
+    public long getArcRevisions() { return arcRevisions; }
+
+    /**
+     * @return The number of dates removed from the domains by node consistency
+     * and constraint propagation combined
+     */
+    public long getValuesPruned() { return valuesPruned; }
+
+    public long getNodeConsistencyNanos() { return nodeConsistencyNanos; }
+
+    public long getPropagationNanos() { return propagationNanos; }
+
+    public long getBacktrackingNanos() { return backtrackingNanos; }
+
+    @Override
+    public String toString() {
+        return String.format("nodes=%d backtracks=%d arcRevisions=%d valuesPruned=%d "
+                             + "nodeConsistency=%.3fms propagation=%.3fms backtracking=%.3fms",
+                             nodes, backtracks, arcRevisions, valuesPruned,
+                             nodeConsistencyNanos / 1e6, propagationNanos / 1e6, backtrackingNanos / 1e6);
+    }
+
+
+    /*---------------------------------------------------------------
+     * Recording (used by the solver)
+     *-------------------------------------------------------------*/
+
+
+    void setSolution(List<LocalDate> solution) { this.solution = solution; }
+
+    void node() { nodes++; }
+
+    void backtrack() { backtracks++; }
+
+    void arcRevision() { arcRevisions++; }
+
+    void pruned(long values) { valuesPruned += values; }
+
+    /**
+     * Starts timing one of the solver's phases
+     *
+     * @param phase name of the phase, reported in the flight recorder event
+     * @return event to hand back to {@link #endPhase(PhaseEvent, long)} once the phase is over
+     */
+    PhaseEvent beginPhase(String phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Adds the phase's wall time to its counter and commits its flight recorder event
+     *
+     * @param event  event returned by {@link #beginPhase(String)}
+     * @param pruned values pruned during the phase (0 for backtracking)
+     */
+    void endPhase(PhaseEvent event, long pruned) {
+        long elapsed = System.nanoTime() - event.startNanos;
+        switch (event.phase) {
+            case "nodeConsistency": nodeConsistencyNanos += elapsed;
+                break;
+            case "constraintPropogation": propagationNanos += elapsed;
+                break;
+            case "rBackTracking": backtrackingNanos += elapsed;
+                break;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.valuesPruned = pruned;
+            event.arcRevisions = arcRevisions;
+            event.nodes = nodes;
+            event.backtracks = backtracks;
+            event.commit();
+        }
+    }
+
+    /**
+     * Flight recorder event covering one phase of a CSP.solve call
+     */
+    @Name("csp.SolvePhase")
+    @Label("CSP Solve Phase")
+    @Category("CSP")
+    @Description("One phase (node consistency, propagation or backtracking) of a calendar CSP solve")
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Values Pruned")
+        long valuesPruned;
+
+        @Label("Arc Revisions")
+        long arcRevisions;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Backtracks")
+        long backtracks;
+
+        transient long startNanos;
+    }
+
+}
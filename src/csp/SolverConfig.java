@@ -0,0 +1,86 @@
+package csp;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * SolverConfig: how the CSP solver spreads its work over threads. Loops over
+ * the constraints or variables only run as parallel streams once they hold
+ * at least parallelThreshold elements, since splitting a handful of elements
+ * across threads costs far more than it saves, and they run in the given
+ * ForkJoinPool rather than the common pool shared with the rest of the
+ * process.
+ */
+public class SolverConfig {
+
+    /**
+     * Elements a loop needs before it is worth running in parallel by default
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+    /**
+     * Parallel loops over large problems on the common pool
+     */
+    public static final SolverConfig DEFAULT = new SolverConfig(DEFAULT_THRESHOLD, ForkJoinPool.commonPool());
+
+    /**
+     * Everything on the calling thread
+     */
+    public static final SolverConfig SEQUENTIAL = new SolverConfig(Integer.MAX_VALUE, ForkJoinPool.commonPool());
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelThreshold Minimum number of elements for a loop to run in parallel
+     * @param pool              Pool that runs the parallel loops
+     */
+    public SolverConfig(int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Invalid parallel threshold");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Invalid pool");
+        }
+
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    public int getParallelThreshold() { return parallelThreshold; }
+
+    public ForkJoinPool getPool() { return pool; }
+
+    /**
+     * Runs work over the indexes 0 to size - 1, in parallel on the pool if there are enough of them
+     *
+     * @param size number of indexes
+     * @param work terminal operation on the index stream
+     * @return the result of work
+     */
+    <T> T indexes(int size, Function<IntStream, T> work) {
+        if (size < parallelThreshold) return work.apply(IntStream.range(0, size));
+        return pool.submit(() -> work.apply(IntStream.range(0, size).parallel())).join();
+    }
+
+    /**
+     * Runs work over the elements of items, in parallel on the pool if there are enough of them
+     *
+     * @param items elements to stream
+     * @param work  terminal operation on the element stream
+     * @return the result of work
+     */
+    <E, T> T elements(Collection<E> items, Function<Stream<E>, T> work) {
+        if (items.size() < parallelThreshold) return work.apply(items.stream());
+        return pool.submit(() -> work.apply(items.parallelStream())).join();
+    }
+
+    @Override
+    public String toString() {
+        return "SolverConfig{parallelThreshold=" + parallelThreshold + ", pool=" + pool + "}";
+    }
+
+}
@@ -0,0 +1,309 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * AdaptiveHuffman: one-pass (FGK) Huffman coding, for streams with no
+ * corpus to build an Encoding Map from ahead of time. Every character
+ * updates the Huffman Trie right after it is coded, and the decoder makes
+ * the same update right after decoding it, so both sides keep identical
+ * Tries without a model ever being sent. A character seen for the first
+ * time is sent as the code of the "not yet transmitted" (NYT) leaf
+ * followed by its 16 bits, and then gets a leaf of its own.
+ *
+ * Once the total count reaches the rescale limit, every count is halved
+ * and the Trie rebuilt from them, which bounds how deep (and so how costly
+ * to update) it can get, and lets it follow a stream whose distribution
+ * drifts.
+ *
+ * An instance is one side of one stream: messages must be decompressed in
+ * the order they were compressed, by an instance that has decompressed
+ * nothing else.
+ */
+public class AdaptiveHuffman {
+
+    /**
+     * Total count at which counts are halved by default
+     */
+    public static final int DEFAULT_RESCALE_LIMIT = 1 << 16;
+
+    /* Largest rescale limit, which keeps every code within BitWriter's 56 bits */
+    private static final int MAX_RESCALE_LIMIT = 1 << 24;
+
+    private static final int CHAR_BITS = Character.SIZE;
+    private static final int NO_NODE = -1;
+
+    private final int rescaleLimit;
+
+    /*
+     * The Trie's nodes, numbered from the root at 0 in order of non-increasing weight,
+     * siblings side by side (the sibling property), and the NYT leaf always last. A node
+     * is a leaf if it has no children, else its children are firstChild (code bit 1)
+     * and firstChild + 1 (code bit 0).
+     */
+    private int[] weight = new int[16], parent = new int[16], firstChild = new int[16], symbol = new int[16];
+    private int size;
+    private final int[] leafOf = new int[Character.MAX_VALUE + 1];
+
+    public AdaptiveHuffman() {
+        this(DEFAULT_RESCALE_LIMIT);
+    }
+
+    /**
+     * @param rescaleLimit total count at which counts are halved, from 2 to 2^24;
+     *                     both sides of a stream must use the same one
+     */
+    public AdaptiveHuffman(int rescaleLimit) {
+        if (rescaleLimit < 2 || rescaleLimit > MAX_RESCALE_LIMIT) {
+            throw new IllegalArgumentException("Invalid rescale limit, must be from 2 to " + MAX_RESCALE_LIMIT);
+        }
+        this.rescaleLimit = rescaleLimit;
+        Arrays.fill(leafOf, NO_NODE);
+        size = 1;
+        parent[0] = NO_NODE;
+        firstChild[0] = NO_NODE;
+        symbol[0] = NO_NODE;
+    }
+
+    /**
+     * Compresses message with the Trie as the messages before it left it, updating
+     * it along the way
+     *
+     * @param message String to compress, any characters at all
+     * @return {@code byte[]} formatted as: (1) the number of characters in the message
+     * as a varint, (2) the bitstring, (3) possible 0-padding on the final byte.
+     */
+    public byte[] compress(String message) {
+        int nChars = message.length();
+        ByteBuffer out = ByteBuffer.allocate(Varint.MAX_BYTES + Math.max(2 * Long.BYTES, nChars / 2));
+        Varint.write(nChars, out.array(), 0);
+        out.position(Varint.size(nChars));
+
+        BitWriter writer = new BitWriter(out);
+        for (int i = 0; i < nChars; i++) {
+            // Room for the most one character can drain out of the writer
+            if (out.remaining() < 2 * Long.BYTES) {
+                ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, 2L * out.capacity()));
+                out.flip();
+                out = bigger.put(out);
+                writer.redirect(out);
+            }
+            encode(message.charAt(i), writer);
+        }
+        writer.finish();
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Decompresses the next message compressed by the other side of the stream,
+     * updating the Trie along the way
+     *
+     * @param compressed The compressed message
+     * @return The original message, cut short if the bitstring ends first
+     * @throws IllegalArgumentException if the message length is out of range, or the
+     *                                  bitstring sends a character it has sent before
+     *                                  as a new one
+     */
+    public String decompress(byte[] compressed) {
+        ByteBuffer in = ByteBuffer.wrap(compressed);
+        long msgLength = Varint.read(in);
+        if (msgLength < 0 || msgLength > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
+
+        BitReader bits = new BitReader(in);
+        StringBuilder result = new StringBuilder((int) Math.min(msgLength, bits.remaining()));
+        for (long i = 0; i < msgLength; i++) {
+            int c = decode(bits);
+            if (c < 0) break;
+            result.append((char) c);
+        }
+        return result.toString();
+    }
+
+    /*
+     * Writes c's code, or the NYT code and c itself, then counts it
+     */
+    private void encode(char c, BitWriter out) {
+        int leaf = leafOf[c];
+        int node = leaf == NO_NODE ? size - 1 : leaf;
+
+        long bits = 0;
+        int length = 0;
+        for (; node != 0; node = parent[node], length++) {
+            if (firstChild[parent[node]] == node) bits |= 1L << length;
+        }
+        out.write(bits, length);
+        if (leaf == NO_NODE) out.write(c, CHAR_BITS);
+        count(c);
+    }
+
+    /*
+     * Reads the next character, or returns -1 if the bits run out first
+     */
+    private int decode(BitReader in) {
+        long window = in.window();
+        int node = 0, length = 0;
+        for (; firstChild[node] != NO_NODE; length++) {
+            node = window << length < 0 ? firstChild[node] : firstChild[node] + 1;
+        }
+        if (length > in.remaining()) return -1;
+        in.skip(length);
+
+        int c = symbol[node];
+        if (node == size - 1) {
+            if (in.remaining() < CHAR_BITS) return -1;
+            c = (int) (in.window() >>> Long.SIZE - CHAR_BITS);
+            in.skip(CHAR_BITS);
+            if (leafOf[c] != NO_NODE) {
+                throw new IllegalArgumentException("Invalid compressed message, repeats new character " + c);
+            }
+        }
+        count((char) c);
+        return c;
+    }
+
+    /*
+     * Adds one to c's count, giving it a leaf first if it has none
+     */
+    private void count(char c) {
+        if (leafOf[c] == NO_NODE) {
+            // The NYT leaf becomes the parent of c's leaf and a new NYT leaf
+            int nyt = size - 1;
+            grow(size + 2);
+            firstChild[nyt] = nyt + 1;
+            leaf(nyt + 1, nyt, c, 0);
+            leaf(nyt + 2, nyt, NO_NODE, 0);
+            size += 2;
+        }
+
+        // Every node on the way up swaps places with the first node of its weight, so it
+        // stays in weight order once its weight goes up
+        for (int node = leafOf[c]; node != NO_NODE; node = parent[node]) {
+            int leader = node;
+            while (leader > 0 && weight[leader - 1] == weight[node]) leader--;
+            if (leader == parent[node] && leader != node - 1) {
+                // Only the leaf beside NYT can have its own parent at the front of its block:
+                // move the parent to the back of the block first, so the leaf can take the front
+                swap(leader, node - 1);
+            }
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+        }
+
+        if (weight[0] >= rescaleLimit) rescale();
+    }
+
+    /*
+     * Trades the subtrees at nodes a and b, which have the same weight
+     */
+    private void swap(int a, int b) {
+        int s = symbol[a], f = firstChild[a];
+        symbol[a] = symbol[b];
+        firstChild[a] = firstChild[b];
+        symbol[b] = s;
+        firstChild[b] = f;
+        adopt(a);
+        adopt(b);
+    }
+
+    private void adopt(int node) {
+        if (firstChild[node] == NO_NODE) {
+            if (symbol[node] != NO_NODE) leafOf[symbol[node]] = node;
+        }
+        else {
+            parent[firstChild[node]] = node;
+            parent[firstChild[node] + 1] = node;
+        }
+    }
+
+    /*
+     * Halves every count (rounding up, so none drop to 0) and rebuilds the Trie from
+     * them. Nodes are merged two at a time, lightest first, taking the leaves before
+     * merged nodes when they tie, and numbered from the back in the order they're
+     * taken, which gives the sibling property back.
+     */
+    private void rescale() {
+        int nLeaves = (size - 1) / 2, nNodes = 2 * nLeaves + 1;
+        int[] leafWeight = new int[nLeaves + 1], leafSymbol = new int[nLeaves + 1];
+        leafSymbol[0] = NO_NODE;
+        for (int node = 0, leaf = 1; node < size - 1; node++) {
+            if (firstChild[node] != NO_NODE) continue;
+            leafSymbol[leaf] = symbol[node];
+            leafWeight[leaf++] = (weight[node] + 1) / 2;
+        }
+        // NYT first, then the leaves lightest first, ties in symbol order
+        int[] byWeight = IntStream.range(0, nLeaves + 1).boxed()
+                                  .sorted(Comparator.<Integer>comparingInt(leaf -> leafWeight[leaf])
+                                                    .thenComparingInt(leaf -> leafSymbol[leaf]))
+                                  .mapToInt(Integer::intValue).toArray();
+
+        // Temporary nodes: leaves are [0, nLeaves], merged nodes after them
+        int[] tempWeight = Arrays.copyOf(leafWeight, nNodes), tempFirst = new int[nNodes], number = new int[nNodes];
+        Arrays.fill(tempFirst, NO_NODE);
+        ArrayDeque<Integer> leaves = new ArrayDeque<>(), merged = new ArrayDeque<>();
+        for (int leaf : byWeight) {
+            leaves.add(leaf);
+        }
+        int next = nNodes - 1, created = nLeaves + 1;
+        while (leaves.size() + merged.size() > 1) {
+            int a = lighter(leaves, merged, tempWeight), b = lighter(leaves, merged, tempWeight);
+            number[a] = next--;
+            number[b] = next--;
+            tempWeight[created] = tempWeight[a] + tempWeight[b];
+            tempFirst[created] = b;
+            merged.add(created++);
+        }
+        number[lighter(leaves, merged, tempWeight)] = next;
+
+        grow(nNodes);
+        size = nNodes;
+        for (int temp = 0; temp < nNodes; temp++) {
+            int node = number[temp];
+            weight[node] = tempWeight[temp];
+            if (tempFirst[temp] == NO_NODE) {
+                firstChild[node] = NO_NODE;
+                symbol[node] = leafSymbol[temp];
+            }
+            else {
+                firstChild[node] = number[tempFirst[temp]];
+                symbol[node] = NO_NODE;
+            }
+        }
+        parent[0] = NO_NODE;
+        for (int node = 0; node < size; node++) {
+            adopt(node);
+        }
+    }
+
+    private static int lighter(ArrayDeque<Integer> leaves, ArrayDeque<Integer> merged, int[] weights) {
+        if (merged.isEmpty() || !leaves.isEmpty() && weights[leaves.peek()] <= weights[merged.peek()])
+            return leaves.poll();
+        return merged.poll();
+    }
+
+    private void leaf(int node, int parentNode, int c, int w) {
+        parent[node] = parentNode;
+        firstChild[node] = NO_NODE;
+        symbol[node] = c;
+        weight[node] = w;
+        if (c != NO_NODE) leafOf[c] = node;
+    }
+
+    private void grow(int n) {
+        if (n <= weight.length) return;
+        int capacity = Math.max(n, 2 * weight.length);
+        weight = Arrays.copyOf(weight, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        symbol = Arrays.copyOf(symbol, capacity);
+    }
+
+}
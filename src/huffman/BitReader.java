@@ -0,0 +1,74 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BitReader: reads the bytes of a ByteBuffer as a stream of bits, most
+ * significant bit first. Bytes are loaded into a 64-bit buffer ahead of
+ * time, so the next 57 or more bits can always be looked at in one go;
+ * past the end of the input they read as 0s.
+ */
+class BitReader {
+
+    private final ByteBuffer in;
+    private final int end;
+    private int position;
+    private long buffer;
+    private int buffered;
+    private long remaining;
+
+    /**
+     * @param in       array to read from
+     * @param position index of the first byte to read
+     * @param end      index just past the last byte to read
+     */
+    BitReader(byte[] in, int position, int end) {
+        this(ByteBuffer.wrap(in, position, end - position));
+    }
+
+    /**
+     * @param in buffer to read from its position up to its limit, which is left untouched
+     */
+    BitReader(ByteBuffer in) {
+        this.in = in;
+        this.position = in.position();
+        this.end = in.limit();
+        this.remaining = 8L * (end - position);
+    }
+
+    /**
+     * @return the next 57 or more bits, left aligned
+     */
+    long window() {
+        while (buffered <= Long.SIZE - 8) {
+            long b = position < end ? in.get(position++) & 0xFF : 0;
+            buffer |= b << Long.SIZE - 8 - buffered;
+            buffered += 8;
+        }
+        return buffer;
+    }
+
+    /**
+     * Moves past the next n bits of the window
+     *
+     * @param n number of bits, at most 56
+     */
+    void skip(int n) {
+        buffer <<= n;
+        buffered -= n;
+        remaining -= n;
+    }
+
+    /**
+     * @return number of bits left before the end of the input
+     */
+    long remaining() { return remaining; }
+
+    /**
+     * @return index just past the last byte with any bits read from it
+     */
+    int position() {
+        return (int) (end - remaining / 8);
+    }
+
+}
@@ -0,0 +1,63 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BitWriter: packs variable-length codes, most significant bit first, into
+ * a ByteBuffer. Codes are shifted into a 64-bit accumulator and only whole
+ * bytes are moved out of it into the buffer, once the next code would no
+ * longer fit.
+ */
+class BitWriter {
+
+    private ByteBuffer out;
+    private long accumulator;
+    private int pending;
+
+    /**
+     * @param out buffer to write into from its position on, with room for everything that will be written
+     */
+    BitWriter(ByteBuffer out) {
+        this.out = out;
+    }
+
+    /**
+     * Appends the low length bits of bits
+     *
+     * @param bits   code to write, right aligned
+     * @param length number of bits in the code, at most 56
+     */
+    void write(long bits, int length) {
+        if (pending + length > Long.SIZE) drain();
+        accumulator = accumulator << length | bits;
+        pending += length;
+    }
+
+    /**
+     * Carries on writing into out instead, pending bits and all, e.g. once what has been
+     * written so far is copied into a bigger buffer
+     */
+    void redirect(ByteBuffer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes out any pending bits, 0-padding the final byte, leaving the buffer's
+     * position just past the last byte written
+     */
+    void finish() {
+        drain();
+        if (pending > 0) {
+            out.put((byte) (accumulator << 8 - pending));
+            pending = 0;
+        }
+    }
+
+    private void drain() {
+        while (pending >= 8) {
+            pending -= 8;
+            out.put((byte) (accumulator >>> pending));
+        }
+    }
+
+}
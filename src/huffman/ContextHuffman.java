@@ -0,0 +1,375 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ContextHuffman: order-1 Huffman coding, where each character is coded
+ * with a code table picked by the character before it. Text repeats
+ * itself locally (a digit after a digit, a 'u' after a 'q'), so each
+ * context's table is far more skewed than one table for everything.
+ *
+ * Only contexts that follow often enough in the corpus get a table of
+ * their own; the rest, and the first character of a message, fall back
+ * to an order-0 table over the whole corpus. A context's table also has
+ * an escape code, for characters that never followed it in the corpus,
+ * which are then sent with the order-0 table. Every table decodes through
+ * a DecodeTable of its own.
+ *
+ * Symbols are numbered by rank, their position among the corpus's
+ * characters in order, which keeps the tables small and the serialized
+ * model compact. The model is laid out as:
+ * byte 4 (after Huffman's alphabets), varint number of characters, then
+ * for each: varint gap from the previous character (the first one's
+ * value itself), byte order-0 code length; then varint number of
+ * contexts, and for each: varint gap in rank from the previous context
+ * (the first one's rank itself), varint number of characters coded,
+ * byte escape code length, then for each character: varint gap in rank
+ * from the previous one (the first one's rank itself), byte code length.
+ */
+public class ContextHuffman {
+
+    /* First byte of a serialized model */
+    static final int ORDER_1 = 4;
+
+    /**
+     * Times a character must be followed in the corpus, by default, for it to get
+     * a code table of its own
+     */
+    public static final int DEFAULT_MIN_CONTEXT = 64;
+
+    private static final int NO_CONTEXT = -1;
+
+    /* Characters by rank, and rank by character (-1 for those missing from the corpus) */
+    private char[] symbols;
+    private int[] rankOf;
+
+    /* Order-0 table, indexed by rank */
+    private long[] codes;
+    private DecodeTable decodeTable;
+
+    /*
+     * Context of each character's rank (NO_CONTEXT if it falls back to order-0), and each
+     * context's rank and tables, indexed by rank with the escape code last
+     */
+    private int[] contextOf;
+    private int[] contextRanks;
+    private long[][] contextCodes;
+    private DecodeTable[] contextTables;
+
+    /**
+     * Builds the order-0 and order-1 tables from the character pairs in corpus, giving
+     * a table to every character followed at least {@link #DEFAULT_MIN_CONTEXT} times
+     *
+     * @param corpus Text with distributions like those that will be compressed
+     */
+    public ContextHuffman(String corpus) {
+        this(corpus, DEFAULT_MIN_CONTEXT);
+    }
+
+    /**
+     * Builds the order-0 and order-1 tables from the character pairs in corpus
+     *
+     * @param corpus          Text with distributions like those that will be compressed
+     * @param minContextCount Times a character must be followed in corpus for it to
+     *                        get a code table of its own, at least 1
+     */
+    public ContextHuffman(String corpus, int minContextCount) {
+        if (minContextCount < 1) {
+            throw new IllegalArgumentException("Invalid minimum context count");
+        }
+
+        long[] counts = Histogram.ofChars(corpus);
+        int[] ranks = new int[counts.length];
+        int nSymbols = 0;
+        for (int c = 0; c < counts.length; c++) {
+            ranks[c] = counts[c] > 0 ? nSymbols++ : NO_CONTEXT;
+        }
+        long[] rankCounts = new long[nSymbols];
+        for (int c = 0; c < counts.length; c++) {
+            if (ranks[c] >= 0) rankCounts[ranks[c]] = counts[c];
+        }
+
+        // Every pair of neighbours, as previous rank * nSymbols + rank, sorted so each
+        // context's pairs come out together
+        long[] pairs = new long[Math.max(0, corpus.length() - 1)];
+        for (int i = 1; i < corpus.length(); i++) {
+            pairs[i - 1] = (long) ranks[corpus.charAt(i - 1)] * nSymbols + ranks[corpus.charAt(i)];
+        }
+        Arrays.parallelSort(pairs);
+
+        int nContexts = 0;
+        int[] contextRanks = new int[nSymbols];
+        int[][] contextLengths = new int[nSymbols][];
+        for (int start = 0, end; start < pairs.length; start = end) {
+            int context = (int) (pairs[start] / nSymbols);
+            end = start;
+            while (end < pairs.length && pairs[end] / nSymbols == context) end++;
+            if (end - start < minContextCount) continue;
+
+            // Escape counts as often as there are distinct characters after the context
+            long[] followers = new long[nSymbols + 1];
+            for (int i = start; i < end; i++) {
+                if (followers[(int) (pairs[i] % nSymbols)]++ == 0) followers[nSymbols]++;
+            }
+            contextRanks[nContexts] = context;
+            contextLengths[nContexts++] = Arrays.copyOf(Huffman.codeLengths(followers, Huffman.MAX_CODE_LENGTH),
+                                                        nSymbols + 1);
+        }
+
+        char[] symbols = new char[nSymbols];
+        for (int c = 0; c < counts.length; c++) {
+            if (ranks[c] >= 0) symbols[ranks[c]] = (char) c;
+        }
+        generateTables(symbols, Huffman.codeLengths(rankCounts, Huffman.MAX_CODE_LENGTH),
+                       Arrays.copyOf(contextRanks, nContexts), Arrays.copyOf(contextLengths, nContexts));
+    }
+
+    private ContextHuffman(char[] symbols, int[] lengths, int[] contextRanks, int[][] contextLengths) {
+        generateTables(symbols, lengths, contextRanks, contextLengths);
+    }
+
+    /**
+     * Loads a model written by {@link #serializeModel()}
+     *
+     * @param model The serialized code lengths
+     * @return ContextHuffman instance with the same tables as the serialized one
+     * @throws IllegalArgumentException if model is not a valid serialized model
+     */
+    public static ContextHuffman fromModel(byte[] model) {
+        ByteBuffer in = ByteBuffer.wrap(model);
+        if (!in.hasRemaining() || in.get() != ORDER_1) {
+            throw new IllegalArgumentException("Invalid model, not an order-1 model");
+        }
+
+        long nSymbols = Varint.read(in);
+        if (nSymbols < 0 || nSymbols > Character.MAX_VALUE + 1) {
+            throw new IllegalArgumentException("Invalid model, too many symbols");
+        }
+        char[] symbols = new char[(int) nSymbols];
+        int[] lengths = new int[(int) nSymbols];
+        int[] ranks = readGaps(in, (int) nSymbols, Character.MAX_VALUE + 1, lengths);
+        for (int rank = 0; rank < nSymbols; rank++) {
+            symbols[rank] = (char) ranks[rank];
+        }
+
+        long nContexts = Varint.read(in);
+        if (nContexts < 0 || nContexts > nSymbols) {
+            throw new IllegalArgumentException("Invalid model, too many contexts");
+        }
+        int[] contextRanks = new int[(int) nContexts];
+        int[][] contextLengths = new int[(int) nContexts][];
+        for (int context = 0; context < nContexts; context++) {
+            long gap = Varint.read(in);
+            contextRanks[context] = (int) (context == 0 ? gap : contextRanks[context - 1] + gap);
+            if (gap < 0 || gap > nSymbols || (context > 0 && gap == 0) || contextRanks[context] >= nSymbols) {
+                throw new IllegalArgumentException("Invalid model, contexts out of order");
+            }
+
+            long nCoded = Varint.read(in);
+            if (nCoded < 0 || nCoded > nSymbols || !in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid model, truncated or out of range");
+            }
+            int[] coded = new int[(int) nSymbols + 1];
+            coded[(int) nSymbols] = checkLength(in.get());
+            int[] codedLengths = new int[(int) nCoded];
+            int[] codedRanks = readGaps(in, (int) nCoded, (int) nSymbols, codedLengths);
+            for (int i = 0; i < nCoded; i++) {
+                coded[codedRanks[i]] = codedLengths[i];
+            }
+            contextLengths[context] = coded;
+        }
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Invalid model, trailing bytes");
+        }
+
+        return new ContextHuffman(symbols, lengths, contextRanks, contextLengths);
+    }
+
+    /**
+     * @return The order-0 and order-1 code lengths, which are all {@link #fromModel(byte[])}
+     * needs to rebuild this instance's tables
+     */
+    public byte[] serializeModel() {
+        ByteBuffer out = ByteBuffer.allocate(modelSize());
+        out.put((byte) ORDER_1);
+        Varint.write(symbols.length, out);
+        for (int rank = 0; rank < symbols.length; rank++) {
+            Varint.write(rank == 0 ? symbols[0] : symbols[rank] - symbols[rank - 1], out);
+            out.put((byte) codes[rank]);
+        }
+
+        Varint.write(contextRanks.length, out);
+        for (int context = 0; context < contextRanks.length; context++) {
+            Varint.write(context == 0 ? contextRanks[0] : contextRanks[context] - contextRanks[context - 1], out);
+            long[] table = contextCodes[context];
+            Varint.write(Arrays.stream(table, 0, symbols.length).filter(code -> code != 0).count(), out);
+            out.put((byte) table[symbols.length]);
+            for (int rank = 0, previous = 0, written = 0; rank < symbols.length; rank++) {
+                if (table[rank] == 0) continue;
+                Varint.write(written++ == 0 ? rank : rank - previous, out);
+                out.put((byte) table[rank]);
+                previous = rank;
+            }
+        }
+        return out.array();
+    }
+
+    private int modelSize() {
+        int size = 1 + Varint.size(symbols.length) + Varint.size(contextRanks.length);
+        for (int rank = 0; rank < symbols.length; rank++) {
+            size += Varint.size(rank == 0 ? symbols[0] : symbols[rank] - symbols[rank - 1]) + 1;
+        }
+        for (int context = 0; context < contextRanks.length; context++) {
+            size += Varint.size(context == 0 ? contextRanks[0] : contextRanks[context] - contextRanks[context - 1]) + 1;
+            int nCoded = 0;
+            for (int rank = 0, previous = 0; rank < symbols.length; rank++) {
+                if (contextCodes[context][rank] == 0) continue;
+                size += Varint.size(nCoded++ == 0 ? rank : rank - previous) + 1;
+                previous = rank;
+            }
+            size += Varint.size(nCoded);
+        }
+        return size;
+    }
+
+    /*
+     * Reads n (varint gap, byte length) pairs, returning the values the gaps add up to,
+     * each below limit, and putting the lengths in lengths
+     */
+    private static int[] readGaps(ByteBuffer in, int n, int limit, int[] lengths) {
+        int[] values = new int[n];
+        long value = 0;
+        for (int i = 0; i < n; i++) {
+            long gap = Varint.read(in);
+            if (gap < 0 || gap >= limit || (i > 0 && gap == 0)) {
+                throw new IllegalArgumentException("Invalid model, symbols out of order");
+            }
+            value = i == 0 ? gap : value + gap;
+            if (value >= limit || !in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid model, truncated or out of range");
+            }
+            values[i] = (int) value;
+            lengths[i] = checkLength(in.get());
+        }
+        return values;
+    }
+
+    private static int checkLength(int length) {
+        if (length < 1 || length > Huffman.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Invalid model code length");
+        }
+        return length;
+    }
+
+    private void generateTables(char[] symbols, int[] lengths, int[] contextRanks, int[][] contextLengths) {
+        this.symbols = symbols;
+        int maxSymbol = symbols.length == 0 ? -1 : symbols[symbols.length - 1];
+        rankOf = new int[maxSymbol + 1];
+        Arrays.fill(rankOf, NO_CONTEXT);
+        for (int rank = 0; rank < symbols.length; rank++) {
+            rankOf[symbols[rank]] = rank;
+        }
+
+        codes = Huffman.canonicalCodes(lengths, symbols.length);
+        decodeTable = new DecodeTable(codes);
+
+        this.contextRanks = contextRanks;
+        contextOf = new int[symbols.length];
+        Arrays.fill(contextOf, NO_CONTEXT);
+        contextCodes = new long[contextRanks.length][];
+        contextTables = new DecodeTable[contextRanks.length];
+        for (int context = 0; context < contextRanks.length; context++) {
+            contextOf[contextRanks[context]] = context;
+            contextCodes[context] = Huffman.canonicalCodes(contextLengths[context], symbols.length + 1);
+            contextTables[context] = new DecodeTable(contextCodes[context]);
+        }
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses message, each character with the table of the one before it
+     *
+     * @param message String to compress
+     * @return {@code byte[]} formatted as: (1) the number of characters in the message
+     * as a varint, (2) the bitstring, (3) possible 0-padding on the final byte.
+     * @throws IllegalArgumentException if message contains a character that was not in the corpus
+     */
+    public byte[] compress(String message) {
+        long nBits = 0;
+        for (int i = 0, context = NO_CONTEXT; i < message.length(); i++) {
+            int rank = rankOf(message.charAt(i));
+            long code = context == NO_CONTEXT ? 0 : contextCodes[context][rank];
+            if (context != NO_CONTEXT && code == 0)
+                nBits += contextCodes[context][symbols.length] & 0xFF;
+            nBits += (code == 0 ? codes[rank] : code) & 0xFF;
+            context = contextOf[rank];
+        }
+
+        long size = Varint.size(message.length()) + (nBits + 7) / 8;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid message, compresses to " + size + " bytes");
+        }
+        ByteBuffer compressed = ByteBuffer.allocate((int) size);
+        Varint.write(message.length(), compressed);
+
+        BitWriter writer = new BitWriter(compressed);
+        for (int i = 0, context = NO_CONTEXT; i < message.length(); i++) {
+            int rank = rankOf(message.charAt(i));
+            long code = context == NO_CONTEXT ? 0 : contextCodes[context][rank];
+            if (context != NO_CONTEXT && code == 0) {
+                long escape = contextCodes[context][symbols.length];
+                writer.write(escape >>> 8, (int) escape & 0xFF);
+            }
+            if (code == 0) code = codes[rank];
+            writer.write(code >>> 8, (int) code & 0xFF);
+            context = contextOf[rank];
+        }
+        writer.finish();
+        return compressed.array();
+    }
+
+    private int rankOf(char c) {
+        if (c >= rankOf.length || rankOf[c] < 0) {
+            throw new IllegalArgumentException("Invalid character, not in corpus: " + (int) c);
+        }
+        return rankOf[c];
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a message written by {@link #compress(String)}
+     *
+     * @param compressed The compressed message
+     * @return The original message, cut short if the bitstring ends first
+     * @throws IllegalArgumentException if the bitstring holds a code that is not in the
+     *                                  tables, or the message is too long for a String
+     */
+    public String decompress(byte[] compressed) {
+        ByteBuffer in = ByteBuffer.wrap(compressed);
+        long msgLength = Varint.read(in);
+        if (msgLength < 0 || msgLength > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
+
+        BitReader bits = new BitReader(in);
+        char[] message = new char[(int) Math.min(msgLength, bits.remaining())];
+        int i = 0;
+        for (int context = NO_CONTEXT; i < message.length; i++) {
+            // No context reads as an escape straight to the order-0 table
+            int rank = context == NO_CONTEXT ? symbols.length : contextTables[context].next(bits);
+            if (rank == symbols.length) rank = decodeTable.next(bits);
+            if (rank < 0) break;
+            message[i] = symbols[rank];
+            context = contextOf[rank];
+        }
+        return new String(message, 0, i);
+    }
+
+}
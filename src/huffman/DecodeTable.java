@@ -0,0 +1,131 @@
+package huffman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DecodeTable: lookup tables that decode one Huffman code per access
+ * instead of walking the trie bit by bit. The root table is indexed by
+ * the next ROOT_BITS bits of input; codes no longer than that are found
+ * right there, along with their length. Longer codes share a root entry
+ * with every code that starts with the same ROOT_BITS bits, and that entry
+ * links to a secondary table indexed by the bits that follow, and so on
+ * for however deep the trie goes.
+ *
+ * Every table lives in the one entries array. An entry is either:
+ * (character << 8) | bits used at this table's level
+ * OR
+ * ~((offset of the linked table << 4) | its index width)
+ * and 0 marks bit patterns no code starts with.
+ */
+class DecodeTable {
+
+    static final int ROOT_BITS = 11;
+
+    private int[] entries = new int[1 << ROOT_BITS];
+    private int size;
+    private final int rootWidth;
+
+    /**
+     * @param codes encoding table indexed by character: the code's bits shifted
+     *              left by 8, OR'd with its length, or 0 if the character has no code
+     */
+    DecodeTable(long[] codes) {
+        List<Integer> characters = new ArrayList<>();
+        for (int c = 0; c < codes.length; c++) {
+            if (codes[c] != 0) characters.add(c);
+        }
+        rootWidth = width(codes, characters, 0);
+        build(codes, characters, 0, rootWidth);
+        entries = Arrays.copyOf(entries, size);
+    }
+
+    /**
+     * Decodes the next character from in
+     *
+     * @return the character, or -1 if fewer bits remain than its code takes up
+     * @throws IllegalArgumentException if the bits match no code
+     */
+    int next(BitReader in) {
+        int entry = lookup(in.window());
+        int used = entry & 0xFF;
+        if (used > in.remaining()) return -1;
+        in.skip(used);
+        return entry >>> 8;
+    }
+
+    /**
+     * Decodes the code at the start of window, without moving past it
+     *
+     * @param window the next 56 or more bits of input, left aligned
+     * @return (character << 8) | length of its code
+     * @throws IllegalArgumentException if the bits match no code
+     */
+    int lookup(long window) {
+        int offset = 0, width = rootWidth, used = 0;
+        int entry = entries[(int) (window >>> Long.SIZE - width)];
+        while (entry < 0) {
+            used += width;
+            offset = ~entry >>> 4;
+            width = ~entry & 0xF;
+            entry = entries[offset + (int) (window << used >>> Long.SIZE - width)];
+        }
+        if (entry == 0) {
+            throw new IllegalArgumentException("Invalid compressed message");
+        }
+        return (entry & ~0xFF) | used + (entry & 0xFF);
+    }
+
+    /*
+     * Fills in a table for the given characters, whose codes all share the same
+     * first depth bits, and returns its offset
+     */
+    private int build(long[] codes, List<Integer> characters, int depth, int width) {
+        int offset = allocate(1 << width);
+        List<List<Integer>> longer = new ArrayList<>(Collections.nCopies(1 << width, null));
+
+        for (int c : characters) {
+            long bits = codes[c] >>> 8;
+            int rest = length(codes, c) - depth;
+            if (rest <= width) {
+                // Every index that starts with the rest of the code decodes to c
+                int first = (int) (bits & (1L << rest) - 1) << width - rest;
+                Arrays.fill(entries, offset + first, offset + first + (1 << width - rest), c << 8 | rest);
+            }
+            else {
+                int index = (int) (bits >>> rest - width & (1 << width) - 1);
+                if (longer.get(index) == null) longer.set(index, new ArrayList<>());
+                longer.get(index).add(c);
+            }
+        }
+
+        for (int index = 0; index < longer.size(); index++) {
+            List<Integer> group = longer.get(index);
+            if (group == null) continue;
+            int subWidth = width(codes, group, depth + width);
+            int subOffset = build(codes, group, depth + width, subWidth);
+            entries[offset + index] = ~(subOffset << 4 | subWidth);
+        }
+        return offset;
+    }
+
+    private int allocate(int n) {
+        if (size + n > entries.length)
+            entries = Arrays.copyOf(entries, Math.max(2 * entries.length, size + n));
+        size += n;
+        return size - n;
+    }
+
+    private static int width(long[] codes, List<Integer> characters, int depth) {
+        int longest = depth + 1;
+        for (int c : characters) {
+            longest = Math.max(longest, length(codes, c));
+        }
+        return Math.min(ROOT_BITS, longest - depth);
+    }
+
+    private static int length(long[] codes, int c) { return (int) codes[c] & 0xFF; }
+
+}
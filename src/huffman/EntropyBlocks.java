@@ -0,0 +1,180 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * EntropyBlocks: order-0 compression of bytes a block at a time, each block
+ * coded by whichever {@link EntropyCoder} engine its own histogram says will
+ * come out smaller, model included. Blocks of ordinary text usually go to
+ * Huffman, which decodes faster; blocks dominated by a few bytes go to tANS.
+ * Two kinds of block skip the coders altogether, both ways: a run of a
+ * single byte is stored as that byte (RLE), and a block whose histogram is
+ * too flat for any coder to shrink it by much, such as already compressed
+ * data, is stored as is (raw).
+ *
+ * A compressed message is laid out as: varint number of bytes, then for
+ * each block: type byte, varint number of bytes, and then
+ * raw (0): the bytes
+ * OR
+ * an engine (1 Huffman, 2 tANS): varint model size, model, varint
+ * bitstring size, bitstring
+ * OR
+ * RLE (3): the byte repeated
+ */
+public class EntropyBlocks {
+
+    static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    /* Block types besides the EntropyCoder engines */
+    static final int RAW = 0, RLE = 3;
+
+    /* Share of a block's raw size the histogram's entropy must save for it to be coded */
+    private static final int MIN_GAIN_DIVISOR = 64;
+
+    private final int blockSize;
+
+    public EntropyBlocks() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize most bytes per block, at least 1
+     */
+    public EntropyBlocks(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param data Bytes to compress
+     * @return The compressed message
+     */
+    public byte[] compress(byte[] data) {
+        byte[] out = new byte[Varint.MAX_BYTES];
+        int position = Varint.write(data.length, out, 0);
+        for (int from = 0; from < data.length; from += blockSize) {
+            int to = (int) Math.min(data.length, (long) from + blockSize), n = to - from;
+            long[] counts = Histogram.ofBytes(ByteBuffer.wrap(data, from, n));
+            int type = blockType(counts, n);
+            EntropyCoder coder = type == RAW || type == RLE ? null : EntropyCoder.of(counts);
+            if (coder != null && EntropyCoder.cost(coder, counts) >= (long) Byte.SIZE * n) {
+                type = RAW;
+                coder = null;
+            }
+            byte[] model = coder == null ? new byte[0] : coder.serializeModel();
+
+            int maxSize = 1 + 3 * Varint.MAX_BYTES + model.length + (coder == null ? n : coder.maxEncodedSize(n));
+            if (out.length - position < maxSize) {
+                out = Arrays.copyOf(out, (int) Math.min(Integer.MAX_VALUE - 8,
+                                                        Math.max(2L * out.length, (long) position + maxSize)));
+            }
+            out[position++] = (byte) (coder == null ? type : coder.engine());
+            position = Varint.write(n, out, position);
+            if (type == RAW) {
+                System.arraycopy(data, from, out, position, n);
+                position += n;
+                continue;
+            }
+            if (type == RLE) {
+                out[position++] = data[from];
+                continue;
+            }
+            position = Varint.write(model.length, out, position);
+            System.arraycopy(model, 0, out, position, model.length);
+            position += model.length;
+
+            // The bitstring's size goes in front of it, once it is known
+            int bitstring = position + Varint.MAX_BYTES;
+            int end = coder.encode(data, from, to, out, bitstring);
+            int sizeEnd = Varint.write(end - bitstring, out, position);
+            System.arraycopy(out, bitstring, out, sizeEnd, end - bitstring);
+            position = sizeEnd + end - bitstring;
+        }
+        return Arrays.copyOf(out, position);
+    }
+
+    /**
+     * @param compressed A compressed message
+     * @return The original bytes
+     * @throws IllegalArgumentException if compressed is malformed or ends early
+     */
+    public byte[] decompress(byte[] compressed) {
+        ByteBuffer in = ByteBuffer.wrap(compressed);
+        long length = Varint.read(in);
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(length));
+        }
+
+        byte[] data = new byte[(int) Math.min(length, 8L * compressed.length)];
+        int position = 0;
+        while (position < length) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid compressed message, truncated");
+            }
+            int type = in.get();
+            long n = Varint.read(in);
+            if (n < 1 || n > length - position) {
+                throw new IllegalArgumentException("Invalid compressed block length");
+            }
+            if (data.length - position < n) {
+                data = Arrays.copyOf(data, (int) Math.min(length, Math.max(2L * data.length, position + n)));
+            }
+
+            // Raw and RLE blocks are copied out without going near a decoder
+            if (type == RAW) {
+                if (n > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid compressed block, truncated");
+                }
+                in.get(data, position, (int) n);
+            }
+            else if (type == RLE) {
+                if (!in.hasRemaining()) {
+                    throw new IllegalArgumentException("Invalid compressed block, truncated");
+                }
+                Arrays.fill(data, position, position + (int) n, in.get());
+            }
+            else {
+                EntropyCoder coder = EntropyCoder.fromModel(type, slice(in));
+                long size = Varint.read(in);
+                if (size < 0 || size > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid compressed block, truncated");
+                }
+                coder.decode(compressed, in.position(), in.position() + (int) size, data, position, (int) n);
+                in.position(in.position() + (int) size);
+            }
+            position += (int) n;
+        }
+        return data;
+    }
+
+    /**
+     * @return RLE if the block is one byte repeated, RAW if its histogram's entropy is
+     * within 1/64 of its raw size, else the engine to be picked by {@link EntropyCoder#of}
+     */
+    static int blockType(long[] counts, int n) {
+        double entropyBits = 0;
+        for (long count : counts) {
+            if (count == n) return RLE;
+            if (count > 0) entropyBits += count * Math.log((double) n / count);
+        }
+        entropyBits /= Math.log(2);
+        return entropyBits >= Byte.SIZE * (n - (double) n / MIN_GAIN_DIVISOR) ? RAW : EntropyCoder.HUFFMAN;
+    }
+
+    /*
+     * Reads a varint size, then that many bytes
+     */
+    private static byte[] slice(ByteBuffer in) {
+        long size = Varint.read(in);
+        if (size < 0 || size > in.remaining()) {
+            throw new IllegalArgumentException("Invalid compressed block, truncated");
+        }
+        byte[] bytes = new byte[(int) size];
+        in.get(bytes);
+        return bytes;
+    }
+
+}
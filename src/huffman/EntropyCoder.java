@@ -0,0 +1,89 @@
+package huffman;
+
+/**
+ * EntropyCoder: an order-0 coder for blocks of bytes, built from the
+ * block's byte histogram (as {@link Histogram#ofBytes} counts it). Two
+ * engines share it: {@link HuffmanCoder}, which decodes a table lookup per
+ * symbol but spends at least a bit on each, and {@link TansCoder}, which
+ * spends fractions of a bit on very common symbols. {@link #of(long[])}
+ * picks tANS only when the histogram says it will come out smaller by
+ * enough to pay for its slower decoding.
+ *
+ * Every coder has a model that rebuilds it without the histogram, and
+ * writes a block as one bitstring, 0-padded to a whole byte.
+ */
+public interface EntropyCoder {
+
+    /* Engines, also the byte that tags a block coded with one */
+    int HUFFMAN = 1, TANS = 2;
+
+    /**
+     * @return the engine, {@link #HUFFMAN} or {@link #TANS}
+     */
+    int engine();
+
+    /**
+     * @param counts count of each byte value in a block
+     * @return number of bits (an estimate, for some engines) the block's bitstring
+     * takes up, not counting the model
+     */
+    long encodedBits(long[] counts);
+
+    /**
+     * @return the serialized model, for {@link #fromModel(int, byte[])}
+     */
+    byte[] serializeModel();
+
+    /**
+     * Writes the bitstring of the bytes in[from, to) into out, which needs room for
+     * at least {@link #maxEncodedSize(int)} of them
+     *
+     * @return index just past the last byte written
+     * @throws IllegalArgumentException if in holds a byte the coder has no code for
+     */
+    int encode(byte[] in, int from, int to, byte[] out, int position);
+
+    /**
+     * Decodes count bytes from the bitstring in[position, end) into out[from, from + count)
+     *
+     * @throws IllegalArgumentException if the bitstring is malformed or too short
+     */
+    void decode(byte[] in, int position, int end, byte[] out, int from, int count);
+
+    /**
+     * @return most bytes the bitstring of n bytes can take up
+     */
+    int maxEncodedSize(int n);
+
+    /**
+     * @param counts count of each byte value, 256 long, at least one of them positive
+     * @return tANS if its bitstring and model come out at least 1/32 smaller for these
+     * counts, else Huffman
+     */
+    static EntropyCoder of(long[] counts) {
+        EntropyCoder huffman = new HuffmanCoder(counts), tans = new TansCoder(counts);
+        long huffmanCost = cost(huffman, counts);
+        return cost(tans, counts) < huffmanCost - huffmanCost / 32 ? tans : huffman;
+    }
+
+    /**
+     * @param engine {@link #HUFFMAN} or {@link #TANS}
+     * @param model  model written by the engine's {@link #serializeModel()}
+     * @throws IllegalArgumentException if the engine is unknown or the model malformed
+     */
+    static EntropyCoder fromModel(int engine, byte[] model) {
+        switch (engine) {
+            case HUFFMAN: return HuffmanCoder.fromModel(model);
+            case TANS: return TansCoder.fromModel(model);
+            default: throw new IllegalArgumentException("Invalid entropy coder " + engine);
+        }
+    }
+
+    /**
+     * @return number of bits a block with these counts costs, model included
+     */
+    static long cost(EntropyCoder coder, long[] counts) {
+        return coder.encodedBits(counts) + Byte.SIZE * (long) coder.serializeModel().length;
+    }
+
+}
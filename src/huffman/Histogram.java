@@ -0,0 +1,176 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Histogram: counts how often each symbol appears in a corpus, straight into
+ * primitive arrays. Within a chunk, neighbouring symbols are counted into
+ * separate (interleaved) tables, so a run of the same symbol doesn't make
+ * every increment wait on the one before it; large corpora are split into
+ * chunks counted on separate threads, and the tables all summed at the end.
+ */
+class Histogram {
+
+    /* Symbols a chunk needs before it is worth counting on a thread of its own */
+    static final int PARALLEL_CHUNK = 1 << 20;
+
+    /* Chunks of chars shorter than this size their tables from their largest char, rather than clear
+     * tables for all 65536 of them */
+    static final int SMALL_CHUNK = 1 << 16;
+
+    private static final int LANES = 4;
+    private static final int CHARS = Character.MAX_VALUE + 1, BYTES = 256;
+    private static final int SUPPLEMENTARY = Character.MAX_CODE_POINT + 1 - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+
+    private Histogram() {}
+
+    /**
+     * @return count of each char in corpus, indexed by char, trimmed after the last one that appears
+     */
+    static long[] ofChars(CharSequence corpus) {
+        return count(corpus.length(), (from, to) -> {
+            int symbols = tableSize(corpus, from, to);
+            int[][] lanes = new int[LANES][symbols];
+            int[] a = lanes[0], b = lanes[1], c = lanes[2], d = lanes[3];
+            int i = from;
+            for (; i + LANES <= to; i += LANES) {
+                a[corpus.charAt(i)]++;
+                b[corpus.charAt(i + 1)]++;
+                c[corpus.charAt(i + 2)]++;
+                d[corpus.charAt(i + 3)]++;
+            }
+            for (; i < to; i++) {
+                a[corpus.charAt(i)]++;
+            }
+            return lanes;
+        });
+    }
+
+    /**
+     * @return count of each code point in corpus, indexed by code point, trimmed after the
+     * last one that appears
+     */
+    static long[] ofCodePoints(CharSequence corpus) {
+        return count(corpus.length(), (from, to) -> {
+            int[][] lanes = new int[LANES + 1][];
+            int symbols = tableSize(corpus, from, to);
+            for (int lane = 0; lane < LANES; lane++) {
+                lanes[lane] = new int[symbols];
+            }
+
+            // A chunk starting halfway through a surrogate pair leaves it to the chunk before
+            int i = from;
+            if (i > 0 && Character.isLowSurrogate(corpus.charAt(i))
+                && Character.isHighSurrogate(corpus.charAt(i - 1))) i++;
+
+            for (int lane = 0; i < to; lane = lane + 1 & LANES - 1) {
+                char c = corpus.charAt(i++);
+                if (Character.isHighSurrogate(c) && i < corpus.length() && Character.isLowSurrogate(corpus.charAt(i))) {
+                    if (lanes[LANES] == null) lanes[LANES] = new int[SUPPLEMENTARY];
+                    lanes[LANES][Character.toCodePoint(c, corpus.charAt(i++))
+                                 - Character.MIN_SUPPLEMENTARY_CODE_POINT]++;
+                }
+                else {
+                    lanes[lane][c]++;
+                }
+            }
+            return lanes;
+        });
+    }
+
+    /**
+     * @return count of each byte value in corpus, from its position up to its limit, as unsigned
+     * values, always 256 long
+     */
+    static long[] ofBytes(ByteBuffer corpus) {
+        int start = corpus.position();
+        long[] counts = count(corpus.remaining(), (from, to) -> {
+            int[][] lanes = new int[LANES][BYTES];
+            int[] a = lanes[0], b = lanes[1], c = lanes[2], d = lanes[3];
+            int i = start + from, end = start + to;
+            for (; i + LANES <= end; i += LANES) {
+                a[corpus.get(i) & 0xFF]++;
+                b[corpus.get(i + 1) & 0xFF]++;
+                c[corpus.get(i + 2) & 0xFF]++;
+                d[corpus.get(i + 3) & 0xFF]++;
+            }
+            for (; i < end; i++) {
+                a[corpus.get(i) & 0xFF]++;
+            }
+            return lanes;
+        });
+        return Arrays.copyOf(counts, BYTES);
+    }
+
+    /*
+     * Counts the symbols [0, n) a chunk at a time, in parallel once there are enough of
+     * them, and sums every chunk's tables. The table after a chunk's LANES ones, if present,
+     * counts the supplementary code points.
+     */
+    private static long[] count(int n, ChunkCounter counter) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int nChunks = n < 2 * PARALLEL_CHUNK ? 1 : Math.min(n / PARALLEL_CHUNK, LANES * parallelism);
+        long chunk = ((long) n + nChunks - 1) / nChunks;
+
+        long[] counts = IntStream.range(0, nChunks).parallel()
+                                 .mapToObj(i -> sum(counter.count((int) (i * chunk),
+                                                                  (int) Math.min(n, (i + 1) * chunk))))
+                                 .reduce(Histogram::add)
+                                 .orElse(new long[0]);
+
+        int last = counts.length - 1;
+        while (last >= 0 && counts[last] == 0) last--;
+        return Arrays.copyOf(counts, last + 1);
+    }
+
+    /*
+     * Entries a chunk's tables of chars need: all of them for large chunks, else up to the
+     * largest char in the chunk
+     */
+    private static int tableSize(CharSequence corpus, int from, int to) {
+        if (to - from >= SMALL_CHUNK) return CHARS;
+        int max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, corpus.charAt(i));
+        }
+        return max + 1;
+    }
+
+    private static long[] sum(int[][] lanes) {
+        int symbols = lanes[0].length;
+        int[] extra = lanes.length > LANES ? lanes[LANES] : null;
+        long[] counts = new long[extra == null ? symbols : CHARS + extra.length];
+        for (int lane = 0; lane < LANES; lane++) {
+            for (int s = 0; s < symbols; s++) {
+                counts[s] += lanes[lane][s];
+            }
+        }
+        if (extra != null) {
+            for (int s = 0; s < extra.length; s++) {
+                counts[CHARS + s] = extra[s];
+            }
+        }
+        return counts;
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] sum = a.length >= b.length ? a : b, other = sum == a ? b : a;
+        for (int s = 0; s < other.length; s++) {
+            sum[s] += other[s];
+        }
+        return sum;
+    }
+
+    private interface ChunkCounter {
+
+        /**
+         * @return LANES tables of counts over the symbols [from, to), all the same length, plus
+         * optionally one more for the supplementary code points
+         */
+        int[][] count(int from, int to);
+    }
+
+}
@@ -1,21 +1,41 @@
 // Kevin Peters
 package huffman;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.summingInt;
 
 /**
  * Huffman instances provide reusable Huffman Encoding Maps for
  * compressing and decompressing text corpi with comparable
- * distributions of characters.
+ * distributions of characters. Codes are canonical, so an Encoding Map
+ * is fully described by each character's code length, and can be shipped
+ * around with {@link #serializeModel()} and {@link #fromModel(byte[])}
+ * instead of rebuilding it from the corpus.
+ *
+ * The symbols being coded come from one of three alphabets, fixed when
+ * the instance is made:
+ * UTF-16 chars: {@link #Huffman(String)}
+ * OR
+ * bytes, with a fixed 256 entry table: {@link #ofBytes(byte[])}
+ * OR
+ * Unicode code points, so supplementary characters are one symbol rather
+ * than a surrogate pair: {@link #ofCodePoints(String)}
+ * Strings are coded a char or a code point at a time to match, and bytes
+ * are coded as the symbols with the same value (so as ISO-8859-1 with a
+ * char alphabet).
+ *
+ * Each factory also takes an optional cap on code length: the plain
+ * Huffman Trie can grow codes as deep as the corpus is skewed, so when it
+ * passes the cap the lengths come from package-merge instead, the best
+ * code that fits. Codes of 11 bits or fewer decode in a single table
+ * lookup, and any capped code in one refill of the 64-bit bit buffer.
+ *
+ * The Encoding Map and its decoding tables live in an immutable
+ * {@link HuffmanModel}, which an instance only wraps: build a model once,
+ * or get it from a {@link HuffmanModelRegistry}, and any number of threads
+ * can compress and decompress with it through {@link #of(HuffmanModel)}.
  */
 public class Huffman {
 
@@ -23,8 +43,24 @@ public class Huffman {
     // Construction
     // -----------------------------------------------
 
-    private HuffNode trieRoot;
-    private Map<Character, String> encodingMap = new HashMap<>();
+    /* Alphabets, also the first byte of a serialized model */
+    static final int CHARS = 1, BYTES = 2, CODE_POINTS = 3;
+
+    /* Largest array (or String) most VMs will allocate */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /* Bitstreams an interleaved message's symbols are dealt out to, round-robin */
+    static final int STREAMS = 4;
+
+    /* Longest code the packed encoding table (and DecodeTable) can hold */
+    static final int MAX_CODE_LENGTH = 56;
+
+    /* Every table comes from the model, which is immutable and may be shared */
+    private final HuffmanModel model;
+    private final int alphabet;
+    private final long[] codes;
+    private final DecodeTable decodeTable;
+    private final MultiDecodeTable multiTable;
 
     /**
      * Creates the Huffman Trie and Encoding Map using the character
@@ -37,26 +73,261 @@ public class Huffman {
      *               differ.
      */
     Huffman(String corpus) {
+        this(CHARS, Histogram.ofChars(corpus), MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Creates the Huffman Trie and Encoding Map using the character
+     * distributions in the given text corpus, with no code longer than
+     * maxCodeLength bits
+     *
+     * @param corpus        A String representing a message / document corpus
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every character in corpus its own code
+     */
+    Huffman(String corpus, int maxCodeLength) {
+        this(CHARS, Histogram.ofChars(corpus), maxCodeLength);
+    }
+
+    private Huffman(int alphabet, long[] counts, int maxCodeLength) {
+        this(new HuffmanModel(alphabet, codeLengths(counts, maxCodeLength)));
+    }
+
+    private Huffman(HuffmanModel model) {
+        this.model = model;
+        this.alphabet = model.alphabet;
+        this.codes = model.codes;
+        this.decodeTable = model.decodeTable;
+        this.multiTable = model.multiTable;
+    }
+
+    /**
+     * Wraps a model, without copying or rebuilding any of it, so it costs next to
+     * nothing: make one per call, per thread, or share one, as is most convenient
+     *
+     * @param model Encoding Map to compress and decompress with
+     * @return Huffman instance coding with model
+     */
+    public static Huffman of(HuffmanModel model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Invalid model");
+        }
+        return new Huffman(model);
+    }
+
+    /**
+     * Creates an Encoding Map over bytes, using the byte distribution in the given corpus
+     *
+     * @param corpus Bytes with distributions like those that will be compressed
+     * @return Huffman instance with a byte alphabet
+     */
+    public static Huffman ofBytes(byte[] corpus) {
+        return ofBytes(ByteBuffer.wrap(corpus));
+    }
+
+    /**
+     * Creates an Encoding Map over bytes, using the byte distribution in the given
+     * corpus, with no code longer than maxCodeLength bits
+     *
+     * @param corpus        Bytes with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return Huffman instance with a byte alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every byte value in corpus its own code
+     */
+    public static Huffman ofBytes(byte[] corpus, int maxCodeLength) {
+        return ofBytes(ByteBuffer.wrap(corpus), maxCodeLength);
+    }
+
+    /**
+     * Creates an Encoding Map over bytes, using the byte distribution in the given
+     * corpus, from its position up to its limit
+     *
+     * @param corpus Bytes with distributions like those that will be compressed
+     * @return Huffman instance with a byte alphabet
+     */
+    public static Huffman ofBytes(ByteBuffer corpus) {
+        return ofBytes(corpus, MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Creates an Encoding Map over bytes, using the byte distribution in the given
+     * corpus, from its position up to its limit, with no code longer than
+     * maxCodeLength bits
+     *
+     * @param corpus        Bytes with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return Huffman instance with a byte alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every byte value in corpus its own code
+     */
+    public static Huffman ofBytes(ByteBuffer corpus, int maxCodeLength) {
+        return new Huffman(BYTES, Histogram.ofBytes(corpus), maxCodeLength);
+    }
+
+    /**
+     * Creates an Encoding Map over bytes from a byte histogram already counted, as
+     * {@link Histogram#ofBytes(ByteBuffer)} counts them
+     *
+     * @param counts        count of each byte value, 256 long
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return Huffman instance with a byte alphabet
+     */
+    static Huffman ofByteCounts(long[] counts, int maxCodeLength) {
+        return new Huffman(BYTES, counts, maxCodeLength);
+    }
+
+    /**
+     * Creates an Encoding Map over Unicode code points, using the code point
+     * distribution in the given corpus
+     *
+     * @param corpus Text with distributions like those that will be compressed
+     * @return Huffman instance with a code point alphabet
+     */
+    public static Huffman ofCodePoints(String corpus) {
+        return ofCodePoints(corpus, MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Creates an Encoding Map over Unicode code points, using the code point
+     * distribution in the given corpus, with no code longer than maxCodeLength bits
+     *
+     * @param corpus        Text with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return Huffman instance with a code point alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every code point in corpus its own code
+     */
+    public static Huffman ofCodePoints(String corpus, int maxCodeLength) {
+        return new Huffman(CODE_POINTS, Histogram.ofCodePoints(corpus), maxCodeLength);
+    }
+
+    /**
+     * Loads a model written by {@link #serializeModel()}, without needing the
+     * corpus it was built from
+     *
+     * @param model The serialized code lengths
+     * @return Huffman instance with the same Encoding Map as the serialized one
+     * @throws IllegalArgumentException if model is not a valid serialized model
+     */
+    public static Huffman fromModel(byte[] model) {
+        return new Huffman(HuffmanModel.fromModel(model));
+    }
+
+    /**
+     * Writes out this instance's Encoding Map as compactly as possible. Canonical
+     * codes only depend on each symbol's code length, so that's all it holds:
+     * an alphabet byte (1 = chars, 2 = bytes, 3 = code points), the number of
+     * symbols as a varint, then for each symbol in increasing order, its distance
+     * from the previous one as a varint (the first one's value instead) followed
+     * by its code length as a byte.
+     *
+     * @return The serialized model, for {@link #fromModel(byte[])}
+     */
+    public byte[] serializeModel() {
+        return model.serialize();
+    }
+
+    /**
+     * @return the immutable model behind this instance
+     */
+    public HuffmanModel model() { return model; }
+
+    /**
+     * @param lengths code length of each symbol, 0 for symbols without a code
+     * @param size    length of the table, at least lengths.length
+     * @return canonical encoding table indexed by symbol: the code's bits shifted
+     * left by 8, OR'd with its length, or 0 for symbols without a code
+     * @throws IllegalArgumentException if a length is over 56, or the lengths are over-subscribed
+     */
+    static long[] canonicalCodes(int[] lengths, int size) {
+        long[] nextCode = new long[MAX_CODE_LENGTH + 2];
+        for (int length : lengths) {
+            if (length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid corpus, code longer than " + MAX_CODE_LENGTH + " bits");
+            }
+            nextCode[length]++;
+        }
+
+        // Kraft inequality: the lengths must leave room for every code
+        long first = 0, unused = 1;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            unused = 2 * unused - nextCode[length];
+            if (unused < 0) {
+                throw new IllegalArgumentException("Invalid model, code lengths over-subscribed");
+            }
+            long count = nextCode[length];
+            nextCode[length] = first;
+            first = first + count << 1;
+        }
+
+        long[] codes = new long[size];
+        for (int c = 0; c < lengths.length; c++) {
+            if (lengths[c] > 0)
+                codes[c] = nextCode[lengths[c]]++ << 8 | lengths[c];
+        }
+        return codes;
+    }
+
+    /**
+     * @param counts        count of each symbol, 0 for symbols that don't appear
+     * @param maxCodeLength longest code allowed, from 1 to 56 bits
+     * @return Huffman code length of each symbol, capped by package-merge if the Trie
+     * grows past maxCodeLength, trimmed after the last symbol that appears
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short to
+     *                                  give every symbol its own code
+     */
+    static int[] codeLengths(long[] counts, int maxCodeLength) {
+        if (maxCodeLength < 1 || maxCodeLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Invalid code length limit, must be from 1 to " + MAX_CODE_LENGTH);
+        }
         PriorityQueue<HuffNode> nodeQueue = new PriorityQueue<>();
-        corpus.chars()
-              .mapToObj(c -> (char) c)
-              .collect(groupingBy(Character::charValue, summingInt(c -> 1)))
-              .forEach((k, v) -> nodeQueue.add(new HuffNode(k, v)));
-        generateTrie(nodeQueue);
-        generateEncoding(trieRoot, "");
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] > 0)
+                nodeQueue.add(new HuffNode(symbol, counts[symbol]));
+        }
+
+        // Skewed corpora can grow the Trie past the limit, which package-merge then caps
+        int[] lengths = codeLengths(nodeQueue);
+        for (int length : lengths) {
+            if (length > maxCodeLength) {
+                return Arrays.copyOf(PackageMerge.lengths(counts, maxCodeLength), lengths.length);
+            }
+        }
+        return lengths;
     }
 
-    private void generateEncoding(HuffNode n, String encoding) {
+    /*
+     * Code length of each symbol in the Huffman Trie built from the given leaves
+     */
+    private static int[] codeLengths(PriorityQueue<HuffNode> nodeQueue) {
+        int maxSymbol = -1;
+        for (HuffNode leaf : nodeQueue) {
+            maxSymbol = Math.max(maxSymbol, leaf.character);
+        }
+        HuffNode trieRoot = generateTrie(nodeQueue);
+
+        int[] lengths = new int[maxSymbol + 1];
+        // A lone symbol still needs a 1 bit code for its occurrences to be counted out
+        if (trieRoot != null && trieRoot.isLeaf())
+            codeLengths(trieRoot, 1, lengths);
+        else
+            codeLengths(trieRoot, 0, lengths);
+        return lengths;
+    }
+
+    private static void codeLengths(HuffNode n, int length, int[] lengths) {
         if (null == n) return;
-        if (n.isLeaf())
-            encodingMap.put(n.character, encoding);
-        else {
-            generateEncoding(n.left, encoding + '0');
-            generateEncoding(n.right, encoding + '1');
+        if (n.isLeaf()) {
+            lengths[n.character] = length;
+            return;
         }
+        codeLengths(n.left, length + 1, lengths);
+        codeLengths(n.right, length + 1, lengths);
     }
 
-    private void generateTrie(PriorityQueue<HuffNode> nodeQueue) {
+    private static HuffNode generateTrie(PriorityQueue<HuffNode> nodeQueue) {
         while (nodeQueue.size() > 1) {
             HuffNode small = nodeQueue.poll(), big = nodeQueue.poll();
             HuffNode combined = new HuffNode(small.character, small.count + big.count);
@@ -64,7 +335,22 @@ public class Huffman {
             combined.right = big;
             nodeQueue.add(combined);
         }
-        trieRoot = nodeQueue.poll();
+        return nodeQueue.poll();
+    }
+
+    boolean hasCodePoints() { return alphabet == CODE_POINTS; }
+
+    boolean decodesMultiSymbol() { return multiTable != null; }
+
+    /**
+     * @return length of the longest code in the Encoding Map, 0 if it is empty
+     */
+    int maxCodeLength() {
+        int max = 0;
+        for (long code : codes) {
+            max = Math.max(max, (int) (code & 0xFF));
+        }
+        return max;
     }
 
     // -----------------------------------------------
@@ -73,28 +359,312 @@ public class Huffman {
 
     /**
      * Compresses the given String message / text corpus into its Huffman coded
-     * bitstring, as represented by an array of bytes. Uses the encodingMap
-     * field generated during construction for this purpose.
+     * bitstring, as represented by an array of bytes. Uses the Encoding Map
+     * generated during construction for this purpose.
      *
      * @param message String representing the corpus to compress.
      * @return {@code byte[]} representing the compressed corpus with the
      * Huffman coded bytecode. Formatted as 3 components: (1) the
-     * first byte contains the number of characters in the message,
-     * (2) the bitstring containing the message itself, (3) possible
-     * 0-padding on the final byte.
+     * number of characters in the message as a varint (a single byte
+     * for messages under 128 characters), (2) the bitstring containing
+     * the message itself, (3) possible 0-padding on the final byte.
+     * @throws IllegalArgumentException if message contains a character that
+     *                                  was not in the corpus, or compresses
+     *                                  to more than an array can hold
      */
     public byte[] compress(String message) {
+        // First pass totals the code lengths, so the output is allocated exactly once
+        ByteBuffer compressed = ByteBuffer.allocate(arraySize(compressedSize(message)));
+        encode(message, compressed);
+        return compressed.array();
+    }
 
-        String binaryStr = message.chars().mapToObj(c -> encodingMap.get((char) c)).collect(Collectors.joining());
-        String[] strBytes = binaryStr.split("(?<=\\G.{8})");
+    /**
+     * Compresses message into out, in the same format as {@link #compress(String)}
+     *
+     * @param message Characters to compress
+     * @param out     Buffer to write to, from its position on
+     * @return number of bytes written
+     * @throws IllegalArgumentException if message contains a character that was not in the corpus
+     * @throws BufferOverflowException  if out doesn't have {@link #compressedSize(CharSequence)}
+     *                                  bytes remaining, in which case nothing is written
+     */
+    public int compress(CharSequence message, ByteBuffer out) {
+        if (out.remaining() < compressedSize(message)) throw new BufferOverflowException();
+        return encode(message, out);
+    }
 
-        ByteArrayOutputStream bOutput = new ByteArrayOutputStream();
-        bOutput.write((byte) message.length());
-        Arrays.stream(strBytes)
-              .mapToInt(b -> Integer.parseInt(b, 2) << 8 - b.length())
-              .forEachOrdered(bOutput::write);
+    /*
+     * Writes the compressed message into out, which the caller has checked has room for it
+     */
+    private int encode(CharSequence message, ByteBuffer out) {
+        int start = out.position();
+        Varint.write(symbolCount(message), out);
+        BitWriter writer = new BitWriter(out);
+        for (int i = 0; i < message.length(); ) {
+            int symbol = alphabet == CODE_POINTS ? Character.codePointAt(message, i) : message.charAt(i);
+            long code = codes[symbol];
+            writer.write(code >>> 8, (int) code & 0xFF);
+            i += alphabet == CODE_POINTS ? Character.charCount(symbol) : 1;
+        }
+        writer.finish();
+        return out.position() - start;
+    }
+
+    /**
+     * @return number of bytes {@link #compress(CharSequence, ByteBuffer)} writes for message
+     * @throws IllegalArgumentException if message contains a character that was not in the corpus
+     */
+    public long compressedSize(CharSequence message) {
+        long nBits = 0;
+        for (int i = 0; i < message.length(); ) {
+            int symbol = alphabet == CODE_POINTS ? Character.codePointAt(message, i) : message.charAt(i);
+            nBits += codeOf(symbol) & 0xFF;
+            i += alphabet == CODE_POINTS ? Character.charCount(symbol) : 1;
+        }
+        return Varint.size(symbolCount(message)) + (nBits + 7) / 8;
+    }
+
+    /**
+     * Compresses the given bytes, each coded as the symbol with the same value,
+     * in the same format as {@link #compress(String)}
+     *
+     * @param message Bytes to compress
+     * @return The compressed bytes
+     * @throws IllegalArgumentException if message contains a byte that was not in the
+     *                                  corpus, or compresses to more than an array can hold
+     */
+    public byte[] compress(byte[] message) {
+        ByteBuffer in = ByteBuffer.wrap(message);
+        ByteBuffer compressed = ByteBuffer.allocate(arraySize(compressedSize(in)));
+        encode(in, compressed);
+        return compressed.array();
+    }
 
-        return bOutput.toByteArray();
+    /**
+     * Compresses the bytes of message, from its position up to its limit, into out.
+     * Moves message's position to its limit.
+     *
+     * @param message Bytes to compress
+     * @param out     Buffer to write to, from its position on
+     * @return number of bytes written
+     * @throws IllegalArgumentException if message contains a byte that was not in the corpus
+     * @throws BufferOverflowException  if out doesn't have {@link #compressedSize(ByteBuffer)}
+     *                                  bytes remaining, in which case nothing is written
+     */
+    public int compress(ByteBuffer message, ByteBuffer out) {
+        if (out.remaining() < compressedSize(message)) throw new BufferOverflowException();
+        return encode(message, out);
+    }
+
+    /*
+     * Writes the compressed bytes of message into out, which the caller has checked has room for them
+     */
+    private int encode(ByteBuffer message, ByteBuffer out) {
+        int start = out.position();
+        Varint.write(message.remaining(), out);
+        BitWriter writer = new BitWriter(out);
+        for (int i = message.position(); i < message.limit(); i++) {
+            long code = codes[message.get(i) & 0xFF];
+            writer.write(code >>> 8, (int) code & 0xFF);
+        }
+        writer.finish();
+        message.position(message.limit());
+        return out.position() - start;
+    }
+
+    /**
+     * @return number of bytes {@link #compress(ByteBuffer, ByteBuffer)} writes for message
+     * @throws IllegalArgumentException if message contains a byte that was not in the corpus
+     */
+    public long compressedSize(ByteBuffer message) {
+        long nBits = 0;
+        for (int i = message.position(); i < message.limit(); i++) {
+            nBits += codeOf(message.get(i) & 0xFF) & 0xFF;
+        }
+        return Varint.size(message.remaining()) + (nBits + 7) / 8;
+    }
+
+    /**
+     * @return number of bits the characters message[from, to) take up, a char at a time
+     */
+    long bitLength(String message, int from, int to) {
+        long nBits = 0;
+        for (int i = from; i < to; i++) {
+            nBits += codeOf(message.charAt(i)) & 0xFF;
+        }
+        return nBits;
+    }
+
+    /**
+     * Writes the codes of the characters message[from, to) into out, a char at a time
+     *
+     * @return index just past the last byte written, after 0-padding
+     */
+    int encode(String message, int from, int to, byte[] out, int position) {
+        ByteBuffer buffer = ByteBuffer.wrap(out, position, out.length - position);
+        BitWriter writer = new BitWriter(buffer);
+        for (int i = from; i < to; i++) {
+            long code = codeOf(message.charAt(i));
+            writer.write(code >>> 8, (int) code & 0xFF);
+        }
+        writer.finish();
+        return buffer.position();
+    }
+
+    /**
+     * @return number of bits the bytes in[from, to) take up
+     */
+    long bitLength(byte[] in, int from, int to) {
+        long nBits = 0;
+        for (int i = from; i < to; i++) {
+            nBits += codeOf(in[i] & 0xFF) & 0xFF;
+        }
+        return nBits;
+    }
+
+    /**
+     * @return number of bits the bytes in[from, to) take up
+     */
+    long bitLength(ByteBuffer in, int from, int to) {
+        long nBits = 0;
+        for (int i = from; i < to; i++) {
+            nBits += codeOf(in.get(i) & 0xFF) & 0xFF;
+        }
+        return nBits;
+    }
+
+    /**
+     * Writes the codes of the bytes in[from, to) into out, from its position on,
+     * 0-padded to a whole byte
+     */
+    void encode(ByteBuffer in, int from, int to, ByteBuffer out) {
+        BitWriter writer = new BitWriter(out);
+        for (int i = from; i < to; i++) {
+            long code = codeOf(in.get(i) & 0xFF);
+            writer.write(code >>> 8, (int) code & 0xFF);
+        }
+        writer.finish();
+    }
+
+    /**
+     * @return number of bits a message with the given count of each symbol takes up
+     */
+    long bitLength(long[] counts) {
+        long nBits = 0;
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] > 0) nBits += counts[symbol] * (codeOf(symbol) & 0xFF);
+        }
+        return nBits;
+    }
+
+    /**
+     * Writes the codes of the bytes in[from, to) into out
+     *
+     * @return index just past the last byte written, after 0-padding
+     */
+    int encode(byte[] in, int from, int to, byte[] out, int position) {
+        ByteBuffer buffer = ByteBuffer.wrap(out, position, out.length - position);
+        BitWriter writer = new BitWriter(buffer);
+        for (int i = from; i < to; i++) {
+            long code = codeOf(in[i] & 0xFF);
+            writer.write(code >>> 8, (int) code & 0xFF);
+        }
+        writer.finish();
+        return buffer.position();
+    }
+
+    /**
+     * Compresses message into 4 interleaved bitstreams: character i goes to stream
+     * i % 4, so the streams can be decoded side by side, each decode step no longer
+     * waiting on the one before it. Not compatible with {@link #compress(String)}.
+     *
+     * @param message String to compress
+     * @return {@code byte[]} formatted as: (1) the number of characters in the message
+     * as a varint, (2) the lengths in bytes of the first 3 streams as varints
+     * (the jump table), (3) the 4 bitstrings, each 0-padded to a whole byte.
+     * @throws IllegalArgumentException      if message contains a character that was not
+     *                                       in the corpus, or compresses to more than an
+     *                                       array can hold
+     * @throws UnsupportedOperationException if the Encoding Map is over code points
+     */
+    public byte[] compressInterleaved(String message) {
+        int nChars = message.length();
+        byte[] compressed = new byte[arraySize(Varint.size(nChars) + interleavedSize(message, 0, nChars))];
+        encodeInterleaved(message, 0, nChars, compressed, Varint.write(nChars, compressed, 0));
+        return compressed;
+    }
+
+    /**
+     * @return number of bytes the characters message[from, to) take up interleaved,
+     * jump table included
+     */
+    long interleavedSize(String message, int from, int to) {
+        long[] nBits = streamBits(message, from, to);
+        long size = 0;
+        for (int stream = 0; stream < STREAMS; stream++) {
+            long nBytes = (nBits[stream] + 7) / 8;
+            size += nBytes + (stream < STREAMS - 1 ? Varint.size(nBytes) : 0);
+        }
+        return size;
+    }
+
+    /**
+     * Writes the jump table and interleaved streams of the characters message[from, to) into out
+     *
+     * @return index just past the last byte written
+     */
+    int encodeInterleaved(String message, int from, int to, byte[] out, int position) {
+        long[] nBits = streamBits(message, from, to);
+        for (int stream = 0; stream < STREAMS - 1; stream++) {
+            position = Varint.write((nBits[stream] + 7) / 8, out, position);
+        }
+
+        BitWriter[] writers = new BitWriter[STREAMS];
+        ByteBuffer last = null;
+        for (int stream = 0; stream < STREAMS; stream++) {
+            int nBytes = (int) ((nBits[stream] + 7) / 8);
+            last = ByteBuffer.wrap(out, position, nBytes);
+            writers[stream] = new BitWriter(last);
+            position += nBytes;
+        }
+        for (int i = from; i < to; i++) {
+            long code = codeOf(message.charAt(i));
+            writers[i - from & STREAMS - 1].write(code >>> 8, (int) code & 0xFF);
+        }
+        for (BitWriter writer : writers) {
+            writer.finish();
+        }
+        return last.position();
+    }
+
+    private long[] streamBits(String message, int from, int to) {
+        if (alphabet == CODE_POINTS) {
+            throw new UnsupportedOperationException("Interleaved streams need a char or byte alphabet");
+        }
+        long[] nBits = new long[STREAMS];
+        for (int i = from; i < to; i++) {
+            nBits[i - from & STREAMS - 1] += codeOf(message.charAt(i)) & 0xFF;
+        }
+        return nBits;
+    }
+
+    private long codeOf(int symbol) {
+        if (symbol >= codes.length || codes[symbol] == 0) {
+            throw new IllegalArgumentException("Invalid character, not in corpus: " + symbol);
+        }
+        return codes[symbol];
+    }
+
+    private int symbolCount(CharSequence message) {
+        return alphabet == CODE_POINTS ? Character.codePointCount(message, 0, message.length()) : message.length();
+    }
+
+    private static int arraySize(long size) {
+        if (size > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid message, compresses to " + size + " bytes");
+        }
+        return (int) size;
     }
 
 
@@ -104,50 +674,331 @@ public class Huffman {
 
     /**
      * Decompresses the given compressed array of bytes into their original,
-     * String representation. Uses the trieRoot field (the Huffman Trie) that
-     * generated the compressed message during decoding.
+     * String representation. Uses the decoding tables built from the same
+     * Huffman Trie that generated the compressed message.
      *
      * @param compressedMsg {@code byte[]} representing the compressed corpus with the
      *                      Huffman coded bytecode. Formatted as 3 components: (1) the
-     *                      first byte contains the number of characters in the message,
-     *                      (2) the bitstring containing the message itself, (3) possible
+     *                      number of characters in the message as a varint, (2) the
+     *                      bitstring containing the message itself, (3) possible
      *                      0-padding on the final byte.
      * @return Decompressed String representation of the compressed bytecode message.
+     * @throws IllegalArgumentException if the bitstring holds a code that is not
+     *                                  in the encoding map, or the message is
+     *                                  too long for a String
      */
     public String decompress(byte[] compressedMsg) {
-        int msgLength = (int) compressedMsg[0];
-        String binaryString =
-                IntStream.range(1, compressedMsg.length).mapToObj(i -> compressedMsg[i])
-                         // Classic java right here -> (P.S. thanks stackoverflow)
-                         .map(b -> String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0'))
-                         .collect(Collectors.joining());
+        ByteBuffer in = ByteBuffer.wrap(compressedMsg);
+        long msgLength = Varint.read(in);
+        if (msgLength < 0 || msgLength > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
 
-        return decode(msgLength, binaryString);
+        // Every character takes at least a bit, so a bad length can't allocate more than the input could fill
+        BitReader bits = new BitReader(in);
+        int capacity = (int) Math.min(msgLength, bits.remaining());
+        if (alphabet != CODE_POINTS) {
+            // Straight into an array, which the multi-symbol table fills a few chars at a time
+            char[] result = new char[capacity];
+            return new String(result, 0, decode(bits, result, 0, capacity));
+        }
+        StringBuilder result = new StringBuilder(capacity);
+        decode(bits, (int) msgLength, result);
+        return result.toString();
     }
 
-    private String decode(int msgLength, String binaryString) {
-        StringBuilder result = new StringBuilder();
-        HuffNode current = trieRoot;
-        int charFound = 0;
-        char[] charArray = binaryString.toCharArray();
+    /**
+     * Decompresses one message from compressed, starting at its position, and appends
+     * its characters to out, allocating nothing beyond out's growth. Moves compressed's
+     * position past the message.
+     *
+     * @param compressed Message written by {@link #compress(CharSequence, ByteBuffer)}
+     * @param out        Builder to append to
+     * @return number of symbols decoded, fewer than the message holds if compressed ends first
+     * @throws IllegalArgumentException if the bitstring holds a code that is not in the encoding map
+     */
+    public int decompress(ByteBuffer compressed, StringBuilder out) {
+        long msgLength = Varint.read(compressed);
+        if (msgLength < 0 || msgLength > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
 
-        // Traverse the trie to decode all characters in string
-        int i = 0;
-        while (charFound != msgLength && i < binaryString.length()) {
-            if (current.isLeaf()) {
-                result.append(current.character);
-                current = trieRoot;
-                charFound++;
+        BitReader bits = new BitReader(compressed);
+        int decoded = decode(bits, (int) msgLength, out);
+        compressed.position(bits.position());
+        return decoded;
+    }
+
+    /**
+     * Decompresses bytes compressed by {@link #compress(byte[])}
+     *
+     * @param compressed The compressed bytes
+     * @return The original bytes
+     * @throws IllegalArgumentException if the bitstring holds a code that is not in the
+     *                                  encoding map, or the message is too long for an array
+     */
+    public byte[] decompressBytes(byte[] compressed) {
+        ByteBuffer in = ByteBuffer.wrap(compressed);
+        long msgLength = Varint.read(in);
+        if (msgLength < 0 || msgLength > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
+
+        BitReader bits = new BitReader(in);
+        byte[] result = new byte[(int) Math.min(msgLength, bits.remaining())];
+        int decoded = decode(bits, result, 0, result.length);
+        return decoded == result.length ? result : Arrays.copyOf(result, decoded);
+    }
+
+    /**
+     * Decompresses one message of bytes from compressed, starting at its position,
+     * into out. Moves compressed's position past the message.
+     *
+     * @param compressed Message written by {@link #compress(ByteBuffer, ByteBuffer)}
+     * @param out        Buffer to write to, from its position on
+     * @return number of bytes decoded, fewer than the message holds if compressed ends first
+     * @throws IllegalArgumentException if the bitstring holds a code that is not in the
+     *                                  encoding map, or a symbol over 255
+     * @throws BufferOverflowException  if out has less room than the message's length,
+     *                                  in which case compressed is left as it was
+     */
+    public int decompress(ByteBuffer compressed, ByteBuffer out) {
+        int start = compressed.position();
+        long msgLength = Varint.read(compressed);
+        if (msgLength < 0 || msgLength > out.remaining()) {
+            compressed.position(start);
+            throw new BufferOverflowException();
+        }
+
+        BitReader bits = new BitReader(compressed);
+        int decoded = (int) decode(bits, out, msgLength);
+        compressed.position(bits.position());
+        return decoded;
+    }
+
+    /**
+     * Decodes count symbols into out, from its position on, as bytes
+     *
+     * @return number of symbols decoded, fewer than count if the bits ran out
+     * @throws IllegalArgumentException if the bitstring holds a code that is not in the
+     *                                  encoding map, or a symbol over 255
+     */
+    long decode(BitReader bits, ByteBuffer out, long count) {
+        long i = 0;
+        while (multiTable != null && count - i >= MultiDecodeTable.SYMBOLS
+               && bits.remaining() >= MultiDecodeTable.BITS) {
+            long entry = multiTable.entry(bits.window());
+            int n = MultiDecodeTable.count(entry);
+            if (n == 0) {
+                int symbol = decodeTable.next(bits);
+                if (symbol < 0) break;
+                out.put(checkByte(symbol));
+                i++;
                 continue;
             }
-            else if (charArray[i] == '0')
-                current = current.left;
+            for (int k = 1; k <= n; k++) {
+                out.put(checkByte((char) (entry >>> 16 * k)));
+            }
+            bits.skip(MultiDecodeTable.used(entry));
+            i += n;
+        }
+        for (; i < count; i++) {
+            int symbol = decodeTable.next(bits);
+            if (symbol < 0) return i;
+            out.put(checkByte(symbol));
+        }
+        return count;
+    }
+
+    private int decode(BitReader bits, int msgLength, StringBuilder out) {
+        int symbolFound = 0;
+        while (multiTable != null && msgLength - symbolFound >= MultiDecodeTable.SYMBOLS
+               && bits.remaining() >= MultiDecodeTable.BITS) {
+            long entry = multiTable.entry(bits.window());
+            int n = MultiDecodeTable.count(entry);
+            if (n == 0) {
+                int symbol = decodeTable.next(bits);
+                if (symbol < 0) break;
+                out.append((char) symbol);
+                symbolFound++;
+                continue;
+            }
+            for (int k = 1; k <= n; k++) {
+                out.append((char) (entry >>> 16 * k));
+            }
+            bits.skip(MultiDecodeTable.used(entry));
+            symbolFound += n;
+        }
+
+        // Stops early if the bitstring runs out before msgLength symbols
+        for (; symbolFound < msgLength; symbolFound++) {
+            int symbol = decodeTable.next(bits);
+            if (symbol < 0) return symbolFound;
+            if (alphabet == CODE_POINTS)
+                out.appendCodePoint(symbol);
             else
-                current = current.right;
-            i += 1;
+                out.append((char) symbol);
         }
+        return msgLength;
+    }
 
-        return result.toString();
+    /**
+     * Decompresses a message written by {@link #compressInterleaved(String)}
+     *
+     * @param compressed The compressed message
+     * @return The original message
+     * @throws IllegalArgumentException      if the jump table or a bitstring is malformed
+     * @throws UnsupportedOperationException if the Encoding Map is over code points
+     */
+    public String decompressInterleaved(byte[] compressed) {
+        ByteBuffer in = ByteBuffer.wrap(compressed);
+        long msgLength = Varint.read(in);
+        if (msgLength < 0 || msgLength > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid message length " + Long.toUnsignedString(msgLength));
+        }
+
+        char[] result = new char[(int) Math.min(msgLength, 8L * in.remaining())];
+        return new String(result, 0, decodeInterleaved(compressed, in.position(), compressed.length,
+                                                       result, 0, result.length));
+    }
+
+    /**
+     * Decodes count symbols from the jump table and interleaved streams in[position, end)
+     * into the chars out[from, from + count), advancing all 4 streams in the same loop
+     *
+     * @return number of symbols decoded, fewer than count if a stream ran out
+     * @throws IllegalArgumentException if the jump table is out of range, or the bits match no code
+     */
+    int decodeInterleaved(byte[] in, int position, int end, char[] out, int from, int count) {
+        if (alphabet == CODE_POINTS) {
+            throw new UnsupportedOperationException("Interleaved streams need a char or byte alphabet");
+        }
+
+        ByteBuffer jumps = ByteBuffer.wrap(in, position, end - position);
+        long[] lengths = new long[STREAMS - 1];
+        for (int stream = 0; stream < STREAMS - 1; stream++) {
+            lengths[stream] = Varint.read(jumps);
+        }
+        int[] starts = new int[STREAMS + 1];
+        starts[0] = jumps.position();
+        for (int stream = 0; stream < STREAMS; stream++) {
+            long length = stream < STREAMS - 1 ? lengths[stream] : end - starts[stream];
+            if (length < 0 || length > end - starts[stream]) {
+                throw new IllegalArgumentException("Invalid compressed message, jump table out of range");
+            }
+            starts[stream + 1] = starts[stream] + (int) length;
+        }
+
+        // Each stream's bit position lives in its own local, so the 4 decodes of a round
+        // share no state and can run side by side. Until a stream's last word, its next
+        // 57 bits are one load (and shift) away.
+        ByteBuffer words = ByteBuffer.wrap(in);
+        long b0 = 8L * starts[0], b1 = 8L * starts[1], b2 = 8L * starts[2], b3 = 8L * starts[3];
+        long f0 = 8L * (starts[1] - Long.BYTES), f1 = 8L * (starts[2] - Long.BYTES);
+        long f2 = 8L * (starts[3] - Long.BYTES), f3 = 8L * (starts[4] - Long.BYTES);
+        int i = 0;
+        for (; i + STREAMS <= count && b0 <= f0 && b1 <= f1 && b2 <= f2 && b3 <= f3; i += STREAMS) {
+            int c0 = decodeTable.lookup(words.getLong((int) (b0 >>> 3)) << (b0 & 7));
+            int c1 = decodeTable.lookup(words.getLong((int) (b1 >>> 3)) << (b1 & 7));
+            int c2 = decodeTable.lookup(words.getLong((int) (b2 >>> 3)) << (b2 & 7));
+            int c3 = decodeTable.lookup(words.getLong((int) (b3 >>> 3)) << (b3 & 7));
+            b0 += c0 & 0xFF;
+            b1 += c1 & 0xFF;
+            b2 += c2 & 0xFF;
+            b3 += c3 & 0xFF;
+            out[from + i] = (char) (c0 >>> 8);
+            out[from + i + 1] = (char) (c1 >>> 8);
+            out[from + i + 2] = (char) (c2 >>> 8);
+            out[from + i + 3] = (char) (c3 >>> 8);
+        }
+
+        // The last words of each stream, checking for the end of its bits, a symbol at a time
+        long[] positions = {b0, b1, b2, b3};
+        BitReader[] streams = new BitReader[STREAMS];
+        for (int stream = 0; stream < STREAMS; stream++) {
+            streams[stream] = new BitReader(in, (int) (positions[stream] >>> 3), starts[stream + 1]);
+            streams[stream].window();
+            streams[stream].skip((int) positions[stream] & 7);
+        }
+        for (; i < count; i++) {
+            int symbol = decodeTable.next(streams[i & STREAMS - 1]);
+            if (symbol < 0) return i;
+            out[from + i] = (char) symbol;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes count symbols into the chars out[from, from + count), a char per symbol
+     *
+     * @return number of symbols decoded, fewer than count if the bits ran out
+     * @throws IllegalArgumentException if the bits match no code
+     */
+    int decode(BitReader bits, char[] out, int from, int count) {
+        int i = 0;
+        while (multiTable != null && count - i >= MultiDecodeTable.SYMBOLS
+               && bits.remaining() >= MultiDecodeTable.BITS) {
+            long entry = multiTable.entry(bits.window());
+            int n = MultiDecodeTable.count(entry);
+            if (n == 0) {
+                int symbol = decodeTable.next(bits);
+                if (symbol < 0) break;
+                out[from + i++] = (char) symbol;
+                continue;
+            }
+            // Always room for every slot; the ones past the entry's symbols get overwritten next
+            out[from + i] = (char) (entry >>> 16);
+            out[from + i + 1] = (char) (entry >>> 32);
+            out[from + i + 2] = (char) (entry >>> 48);
+            bits.skip(MultiDecodeTable.used(entry));
+            i += n;
+        }
+        for (; i < count; i++) {
+            int symbol = decodeTable.next(bits);
+            if (symbol < 0) return i;
+            out[from + i] = (char) symbol;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes count symbols into the bytes out[from, from + count)
+     *
+     * @return number of symbols decoded, fewer than count if the bits ran out
+     * @throws IllegalArgumentException if the bits match no code, or decode to a
+     *                                  symbol that doesn't fit in a byte
+     */
+    int decode(BitReader bits, byte[] out, int from, int count) {
+        int i = 0;
+        while (multiTable != null && count - i >= MultiDecodeTable.SYMBOLS
+               && bits.remaining() >= MultiDecodeTable.BITS) {
+            long entry = multiTable.entry(bits.window());
+            int n = MultiDecodeTable.count(entry);
+            if (n == 0) {
+                int symbol = decodeTable.next(bits);
+                if (symbol < 0) break;
+                out[from + i++] = checkByte(symbol);
+                continue;
+            }
+            out[from + i] = checkByte((char) (entry >>> 16));
+            out[from + i + 1] = checkByte((char) (entry >>> 32));
+            out[from + i + 2] = checkByte((char) (entry >>> 48));
+            bits.skip(MultiDecodeTable.used(entry));
+            i += n;
+        }
+        for (; i < count; i++) {
+            int symbol = decodeTable.next(bits);
+            if (symbol < 0) return i;
+            out[from + i] = checkByte(symbol);
+        }
+        return count;
+    }
+
+    private static byte checkByte(int symbol) {
+        if (symbol > 0xFF) {
+            throw new IllegalArgumentException("Invalid character for a byte stream: " + symbol);
+        }
+        return (byte) symbol;
     }
 
 
@@ -165,17 +1016,17 @@ public class Huffman {
     private static class HuffNode implements Comparable<HuffNode> {
 
         HuffNode left, right;
-        char character;
-        int count;
+        int character;
+        long count;
 
-        HuffNode(char character, int count) {
+        HuffNode(int character, long count) {
             this.count = count;
             this.character = character;
         }
 
         public boolean isLeaf() { return left == null && right == null; }
 
-        public int compareTo(HuffNode other) { return this.count - other.count; }
+        public int compareTo(HuffNode other) { return Long.compare(this.count, other.count); }
     }
 
 }
@@ -0,0 +1,351 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * HuffmanBlocks: compresses large messages as a frame of independent
+ * blocks, so every block can be compressed, checked and decompressed on
+ * its own thread and then put back together in order. A frame is laid
+ * out as:
+ * int magic ("HUFB"), then for each block: varint number of characters,
+ * varint number of bytes, int CRC32C of those bytes, bitstring (0-padded
+ * to a whole byte), and ends with a varint 0.
+ *
+ * Interleaved frames start with the magic "HUF4" instead, and each block's
+ * bitstring is replaced by the 4 interleaved streams and jump table of
+ * {@link Huffman#compressInterleaved(String)}, checksummed together.
+ *
+ * Frames can also carry a seek index after the end marker, for pulling a
+ * range of characters out of the middle without decoding everything
+ * before it. The index is laid out as:
+ * varint number of blocks, then for each block: varint number of
+ * characters, varint distance in bytes from the previous block's header
+ * (the first one's from the start of the frame), followed by int size of
+ * the index in bytes, int magic ("HUFI").
+ */
+public class HuffmanBlocks {
+
+    static final int MAGIC = 0x48554642, INTERLEAVED_MAGIC = 0x48554634, INDEX_MAGIC = 0x48554649;
+
+    /**
+     * Characters per block by default, big enough for a block to be worth a task of its own
+     */
+    public static final int DEFAULT_BLOCK_CHARS = 1 << 20;
+
+    private final Huffman huffman;
+    private final int blockChars;
+    private final ForkJoinPool pool;
+    private final boolean seekIndex;
+    private final boolean interleaved;
+
+    /**
+     * @param huffman Encoding Map to compress with
+     */
+    public HuffmanBlocks(Huffman huffman) {
+        this(huffman, DEFAULT_BLOCK_CHARS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param huffman    Encoding Map to compress with
+     * @param blockChars Most characters in a block
+     * @param pool       Pool that compresses and decompresses the blocks
+     */
+    public HuffmanBlocks(Huffman huffman, int blockChars, ForkJoinPool pool) {
+        this(huffman, blockChars, pool, false);
+    }
+
+    /**
+     * @param huffman    Encoding Map to compress with
+     * @param blockChars Most characters in a block
+     * @param pool       Pool that compresses and decompresses the blocks
+     * @param seekIndex  Whether compressed frames end with a seek index
+     */
+    public HuffmanBlocks(Huffman huffman, int blockChars, ForkJoinPool pool, boolean seekIndex) {
+        this(huffman, blockChars, pool, seekIndex, false);
+    }
+
+    /**
+     * @param huffman     Encoding Map to compress with
+     * @param blockChars  Most characters in a block
+     * @param pool        Pool that compresses and decompresses the blocks
+     * @param seekIndex   Whether compressed frames end with a seek index
+     * @param interleaved Whether compressed blocks are split into 4 interleaved streams
+     */
+    public HuffmanBlocks(Huffman huffman, int blockChars, ForkJoinPool pool, boolean seekIndex, boolean interleaved) {
+        if (huffman == null || huffman.hasCodePoints()) {
+            throw new IllegalArgumentException("Invalid Huffman instance, blocks need a char or byte alphabet");
+        }
+        if (blockChars < 1) {
+            throw new IllegalArgumentException("Invalid block size");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Invalid pool");
+        }
+
+        this.huffman = huffman;
+        this.blockChars = blockChars;
+        this.pool = pool;
+        this.seekIndex = seekIndex;
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * Compresses message into a frame, a block per blockChars characters, in parallel
+     *
+     * @param message String to compress
+     * @return The framed blocks
+     * @throws IllegalArgumentException if message contains a character that was not in
+     *                                  the corpus, or compresses to more than an array can hold
+     */
+    public byte[] compress(String message) {
+        int nBlocks = (int) ((message.length() + (long) blockChars - 1) / blockChars);
+        byte[][] blocks = pool.submit(() -> IntStream.range(0, nBlocks).parallel()
+                                                     .mapToObj(block -> compressBlock(message, block))
+                                                     .toArray(byte[][]::new)).join();
+
+        long size = Integer.BYTES + 1;
+        for (byte[] block : blocks) {
+            size += block.length;
+        }
+        byte[] index = seekIndex ? writeIndex(message.length(), blocks) : new byte[0];
+        size += index.length;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid message, compresses to " + size + " bytes");
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate((int) size).putInt(interleaved ? INTERLEAVED_MAGIC : MAGIC);
+        for (byte[] block : blocks) {
+            frame.put(block);
+        }
+        return frame.put((byte) 0).put(index).array();
+    }
+
+    /**
+     * Decompresses a frame written by {@link #compress(String)}, checking and
+     * decoding its blocks in parallel, whether or not they are interleaved
+     *
+     * @param frame The framed blocks
+     * @return The original message
+     * @throws IllegalArgumentException if the frame is malformed or a block fails its checksum
+     */
+    public String decompress(byte[] frame) {
+        List<Block> blocks = readBlocks(frame);
+        return decompress(frame, blocks, 0, blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).endChar);
+    }
+
+    /**
+     * Decompresses only the characters [from, to) of a frame, decoding just the blocks
+     * that hold them. Frames with a seek index go straight to those blocks, others
+     * have their block headers walked from the start.
+     *
+     * @param frame The framed blocks
+     * @param from  Index of the first character to decompress
+     * @param to    Index just past the last character to decompress
+     * @return The characters [from, to) of the original message
+     * @throws IllegalArgumentException if the range is out of the message's bounds, the frame
+     *                                  is malformed or a block fails its checksum
+     */
+    public String decompress(byte[] frame, long from, long to) {
+        List<Block> blocks = hasIndex(frame) ? readIndex(frame) : readBlocks(frame);
+        long nChars = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).endChar;
+        if (from < 0 || from > to || to > nChars) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") of " + nChars + " characters");
+        }
+        return decompress(frame, blocks, from, to);
+    }
+
+    private String decompress(byte[] frame, List<Block> blocks, long from, long to) {
+        int first = covering(blocks, from), last = to == from ? first : covering(blocks, to - 1) + 1;
+        List<Block> covering = blocks.subList(first, last);
+        long start = covering.isEmpty() ? from : covering.get(0).startChar;
+        long end = covering.isEmpty() ? from : covering.get(covering.size() - 1).endChar;
+        if (end - start > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid frame, " + (end - start) + " characters is too many for a String");
+        }
+
+        boolean interleaved = isInterleaved(frame);
+        char[] message = new char[(int) (end - start)];
+        pool.submit(() -> covering.parallelStream()
+                                  .forEach(block -> decompressBlock(frame, interleaved, block, message, start)))
+            .join();
+        return new String(message, (int) (from - start), (int) (to - from));
+    }
+
+    /*
+     * Index of the block holding character c, by binary search over the blocks' starts
+     */
+    private static int covering(List<Block> blocks, long c) {
+        int lo = 0, hi = blocks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blocks.get(mid).startChar <= c)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private byte[] compressBlock(String message, int block) {
+        int from = block * blockChars, to = (int) Math.min(message.length(), (long) from + blockChars);
+        int nBytes = (int) (interleaved ? huffman.interleavedSize(message, from, to)
+                                        : (huffman.bitLength(message, from, to) + 7) / 8);
+        int header = Varint.size(to - from) + Varint.size(nBytes) + Integer.BYTES;
+
+        byte[] compressed = new byte[header + nBytes];
+        int position = Varint.write(to - from, compressed, 0);
+        position = Varint.write(nBytes, compressed, position);
+        if (interleaved)
+            huffman.encodeInterleaved(message, from, to, compressed, position + Integer.BYTES);
+        else
+            huffman.encode(message, from, to, compressed, position + Integer.BYTES);
+
+        CRC32C crc = new CRC32C();
+        crc.update(compressed, header, nBytes);
+        ByteBuffer.wrap(compressed).putInt(position, (int) crc.getValue());
+        return compressed;
+    }
+
+    /*
+     * Seek index for the given compressed blocks, trailer included
+     */
+    private byte[] writeIndex(int nChars, byte[][] blocks) {
+        int size = Varint.size(blocks.length);
+        for (int block = 0, distance = Integer.BYTES; block < blocks.length; distance = blocks[block++].length) {
+            size += Varint.size(Math.min(blockChars, nChars - (long) block * blockChars)) + Varint.size(distance);
+        }
+
+        byte[] index = new byte[size + 2 * Integer.BYTES];
+        int position = Varint.write(blocks.length, index, 0);
+        for (int block = 0, distance = Integer.BYTES; block < blocks.length; distance = blocks[block++].length) {
+            position = Varint.write(Math.min(blockChars, nChars - (long) block * blockChars), index, position);
+            position = Varint.write(distance, index, position);
+        }
+        ByteBuffer.wrap(index, position, 2 * Integer.BYTES).putInt(size).putInt(INDEX_MAGIC);
+        return index;
+    }
+
+    private void decompressBlock(byte[] frame, boolean interleaved, Block block, char[] message, long start) {
+        CRC32C crc = new CRC32C();
+        crc.update(frame, block.offset, block.nBytes);
+        if ((int) crc.getValue() != block.crc) {
+            throw new IllegalArgumentException("Invalid block at byte " + block.offset + ", checksum mismatch");
+        }
+
+        int nChars = (int) (block.endChar - block.startChar);
+        int decoded = interleaved
+                      ? huffman.decodeInterleaved(frame, block.offset, block.offset + block.nBytes, message,
+                                                  (int) (block.startChar - start), nChars)
+                      : huffman.decode(new BitReader(frame, block.offset, block.offset + block.nBytes), message,
+                                       (int) (block.startChar - start), nChars);
+        if (decoded < nChars) {
+            throw new IllegalArgumentException("Invalid block at byte " + block.offset + ", bitstring too short");
+        }
+    }
+
+    /*
+     * Walks the block headers, which is cheap next to decoding, so the blocks can then be
+     * handed out to threads along with where their characters go
+     */
+    private static List<Block> readBlocks(byte[] frame) {
+        isInterleaved(frame);
+        ByteBuffer in = ByteBuffer.wrap(frame, Integer.BYTES, frame.length - Integer.BYTES);
+        List<Block> blocks = new ArrayList<>();
+        long startChar = 0;
+        for (Block block; (block = readHeader(in, startChar)) != null; startChar = block.endChar) {
+            blocks.add(block);
+            in.position(block.offset + block.nBytes);
+        }
+        return blocks;
+    }
+
+    /*
+     * Tells the two kinds of frame apart by their magic number
+     */
+    private static boolean isInterleaved(byte[] frame) {
+        int magic = frame.length < Integer.BYTES ? 0 : ByteBuffer.wrap(frame).getInt(0);
+        if (magic != MAGIC && magic != INTERLEAVED_MAGIC) {
+            throw new IllegalArgumentException("Invalid frame, missing magic number");
+        }
+        return magic == INTERLEAVED_MAGIC;
+    }
+
+    private static boolean hasIndex(byte[] frame) {
+        return frame.length >= 3 * Integer.BYTES + 2
+               && ByteBuffer.wrap(frame).getInt(frame.length - Integer.BYTES) == INDEX_MAGIC;
+    }
+
+    /*
+     * Reads the seek index, then only the header of each block it points to
+     */
+    private static List<Block> readIndex(byte[] frame) {
+        ByteBuffer in = ByteBuffer.wrap(frame);
+        int size = in.getInt(frame.length - 2 * Integer.BYTES);
+        if (size < 1 || size > frame.length - 3 * Integer.BYTES - 1) {
+            throw new IllegalArgumentException("Invalid frame, seek index out of range");
+        }
+        in.position(frame.length - 2 * Integer.BYTES - size).limit(frame.length - 2 * Integer.BYTES);
+
+        long nBlocks = Varint.read(in);
+        if (nBlocks < 0 || nBlocks > size) {
+            throw new IllegalArgumentException("Invalid frame, seek index out of range");
+        }
+
+        List<Block> blocks = new ArrayList<>((int) nBlocks);
+        ByteBuffer headers = ByteBuffer.wrap(frame);
+        long startChar = 0, offset = 0;
+        for (long i = 0; i < nBlocks; i++) {
+            long blockChars = Varint.read(in);
+            offset += Varint.read(in);
+            if (offset < 0 || offset >= frame.length) {
+                throw new IllegalArgumentException("Invalid frame, seek index out of range");
+            }
+
+            Block block = readHeader(headers.position((int) offset), startChar);
+            if (block == null || block.endChar - startChar != blockChars) {
+                throw new IllegalArgumentException("Invalid frame, seek index doesn't match block at byte " + offset);
+            }
+            blocks.add(block);
+            startChar = block.endChar;
+        }
+        return blocks;
+    }
+
+    /*
+     * Reads the block header at in's position, or returns null at the end marker
+     */
+    private static Block readHeader(ByteBuffer in, long startChar) {
+        long blockChars = Varint.read(in);
+        if (blockChars == 0) return null;
+
+        long nBytes = Varint.read(in);
+        if (blockChars < 0 || nBytes < 0 || startChar + blockChars < 0) {
+            throw new IllegalArgumentException("Invalid frame, block length out of range");
+        }
+        if (nBytes > in.remaining() - Integer.BYTES) {
+            throw new IllegalArgumentException("Invalid frame, truncated block at byte " + in.position());
+        }
+        int crc = in.getInt();
+        return new Block(in.position(), (int) nBytes, crc, startChar, startChar + blockChars);
+    }
+
+    private static class Block {
+
+        final int offset, nBytes, crc;
+        final long startChar, endChar;
+
+        Block(int offset, int nBytes, int crc, long startChar, long endChar) {
+            this.offset = offset;
+            this.nBytes = nBytes;
+            this.crc = crc;
+            this.startChar = startChar;
+            this.endChar = endChar;
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * HuffmanChannels: channel versions of {@link HuffmanOutputStream} and
+ * {@link HuffmanInputStream}, in the same chunked format, for code that
+ * moves data around in ByteBuffers.
+ */
+public class HuffmanChannels {
+
+    /* Bytes copied out of a direct buffer at a time */
+    private static final int TRANSFER_BYTES = 1 << 13;
+
+    private HuffmanChannels() {}
+
+    /**
+     * @param channel channel the compressed chunks are written to, closed along with the returned one
+     * @param huffman Encoding Map to compress with
+     * @return a channel that compresses everything written to it
+     */
+    public static WritableByteChannel newWritableChannel(WritableByteChannel channel, Huffman huffman) {
+        return new CompressingChannel(new HuffmanOutputStream(Channels.newOutputStream(channel), huffman));
+    }
+
+    /**
+     * @param channel channel of compressed chunks, closed along with the returned one
+     * @param huffman Encoding Map the chunks were compressed with
+     * @return a channel that reads back what was compressed
+     */
+    public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel, Huffman huffman) {
+        return new DecompressingChannel(new HuffmanInputStream(Channels.newInputStream(channel), huffman));
+    }
+
+
+    /*---------------------------------------------------------------
+     * Channels
+     *-------------------------------------------------------------*/
+
+
+    private static class CompressingChannel implements WritableByteChannel {
+
+        private final OutputStream out;
+        private byte[] transfer;
+        private boolean open = true;
+
+        CompressingChannel(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+
+            int n = src.remaining();
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.limit());
+            }
+            else {
+                if (transfer == null) transfer = new byte[TRANSFER_BYTES];
+                while (src.hasRemaining()) {
+                    int step = Math.min(src.remaining(), transfer.length);
+                    src.get(transfer, 0, step);
+                    out.write(transfer, 0, step);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() { return open; }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            out.close();
+        }
+    }
+
+    private static class DecompressingChannel implements ReadableByteChannel {
+
+        private final InputStream in;
+        private byte[] transfer;
+        private boolean open = true;
+
+        DecompressingChannel(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (!dst.hasRemaining()) return 0;
+
+            if (dst.hasArray()) {
+                int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (n > 0) dst.position(dst.position() + n);
+                return n;
+            }
+
+            if (transfer == null) transfer = new byte[TRANSFER_BYTES];
+            int n = in.read(transfer, 0, Math.min(dst.remaining(), transfer.length));
+            if (n > 0) dst.put(transfer, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() { return open; }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package huffman;
+
+/**
+ * HuffmanCoder: the Huffman engine of {@link EntropyCoder}, a byte alphabet
+ * {@link Huffman} instance with codes capped at DecodeTable's root bits,
+ * so every symbol decodes in a single table lookup.
+ */
+class HuffmanCoder implements EntropyCoder {
+
+    private static final int MAX_CODE_LENGTH = 11;
+
+    private final Huffman huffman;
+
+    HuffmanCoder(long[] counts) {
+        this(Huffman.ofByteCounts(counts, MAX_CODE_LENGTH));
+    }
+
+    private HuffmanCoder(Huffman huffman) {
+        this.huffman = huffman;
+    }
+
+    /**
+     * @throws IllegalArgumentException if model is not a byte alphabet Huffman model
+     */
+    static HuffmanCoder fromModel(byte[] model) {
+        if (model.length == 0 || model[0] != Huffman.BYTES) {
+            throw new IllegalArgumentException("Invalid model alphabet");
+        }
+        return new HuffmanCoder(Huffman.fromModel(model));
+    }
+
+    @Override
+    public int engine() { return HUFFMAN; }
+
+    @Override
+    public long encodedBits(long[] counts) {
+        return huffman.bitLength(counts);
+    }
+
+    @Override
+    public byte[] serializeModel() {
+        return huffman.serializeModel();
+    }
+
+    @Override
+    public int encode(byte[] in, int from, int to, byte[] out, int position) {
+        return huffman.encode(in, from, to, out, position);
+    }
+
+    @Override
+    public void decode(byte[] in, int position, int end, byte[] out, int from, int count) {
+        if (huffman.decode(new BitReader(in, position, end), out, from, count) < count) {
+            throw new IllegalArgumentException("Invalid compressed block, bitstring too short");
+        }
+    }
+
+    @Override
+    public int maxEncodedSize(int n) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, ((long) n * huffman.maxCodeLength() + 7) / 8 + Long.BYTES);
+    }
+
+}
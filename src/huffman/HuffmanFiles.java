@@ -0,0 +1,167 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HuffmanFiles: file to file compression, in the same chunked format as
+ * {@link HuffmanOutputStream} and {@link HuffmanInputStream}, so files of
+ * any size never pass through the heap. The source file is memory-mapped
+ * a window at a time (a mapping can't pass 2 GB, so larger files slide
+ * the window along), every chunk is coded straight out of the mapping
+ * into a direct buffer, and the direct buffer is written out whenever it
+ * fills up.
+ */
+public class HuffmanFiles {
+
+    /* Bytes of the source file mapped at a time, a whole number of chunks */
+    static final int MAP_BYTES = 1 << 28;
+
+    /* Size of the direct buffer output is gathered in before it is written */
+    private static final int OUTPUT_BYTES = 1 << 20;
+
+    /* Longest a chunk can be, compressed: its 2 varints and 7 bytes per character */
+    private static final int MAX_CHUNK_BYTES = 2 * Varint.MAX_BYTES + 7 * HuffmanOutputStream.CHUNK_CHARS;
+
+    private HuffmanFiles() {}
+
+    /**
+     * Compresses source into target, creating or replacing target
+     *
+     * @param huffman Encoding Map to compress with, whose corpus should hold every byte in source
+     * @return size of the compressed file
+     * @throws IllegalArgumentException if source holds a byte that isn't a character of the corpus
+     */
+    public static long compress(Path source, Path target, Huffman huffman) throws IOException {
+        return compress(source, target, huffman, MAP_BYTES);
+    }
+
+    /**
+     * Decompresses source, written by {@link #compress(Path, Path, Huffman)} or a
+     * {@link HuffmanOutputStream}, into target, creating or replacing target
+     *
+     * @param huffman Encoding Map the file was compressed with
+     * @return size of the decompressed file
+     * @throws IOException  if source is malformed
+     * @throws EOFException if source ends before its end marker
+     */
+    public static long decompress(Path source, Path target, Huffman huffman) throws IOException {
+        return decompress(source, target, huffman, MAP_BYTES);
+    }
+
+    /**
+     * @param mapBytes bytes of source mapped at a time, a whole number of chunks
+     */
+    static long compress(Path source, Path target, Huffman huffman, int mapBytes) throws IOException {
+        if (huffman == null) {
+            throw new IllegalArgumentException("Invalid Huffman instance");
+        }
+        if (mapBytes < HuffmanOutputStream.CHUNK_CHARS || mapBytes % HuffmanOutputStream.CHUNK_CHARS != 0) {
+            throw new IllegalArgumentException("Invalid mapping size");
+        }
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BYTES);
+            long size = in.size(), written = 0;
+            for (long offset = 0; offset < size; offset += mapBytes) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, offset,
+                                                 Math.min(mapBytes, size - offset));
+                for (int from = 0; from < window.limit(); from += HuffmanOutputStream.CHUNK_CHARS) {
+                    int to = Math.min(window.limit(), from + HuffmanOutputStream.CHUNK_CHARS);
+                    long nBytes = (huffman.bitLength(window, from, to) + 7) / 8;
+                    if (buffer.remaining() < 2 * Varint.MAX_BYTES + nBytes) {
+                        written += drain(buffer, out);
+                    }
+                    Varint.write(to - from, buffer);
+                    Varint.write(nBytes, buffer);
+                    huffman.encode(window, from, to, buffer);
+                }
+            }
+            Varint.write(0, buffer);
+            return written + drain(buffer, out);
+        }
+    }
+
+    /**
+     * @param mapBytes bytes of source mapped at a time, enough for the longest chunk
+     */
+    static long decompress(Path source, Path target, Huffman huffman, int mapBytes) throws IOException {
+        if (huffman == null) {
+            throw new IllegalArgumentException("Invalid Huffman instance");
+        }
+        if (mapBytes < MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("Invalid mapping size");
+        }
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BYTES);
+            long size = in.size(), written = 0;
+            // The window maps source from offset, its position at the next chunk
+            long offset = 0;
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(mapBytes, size));
+            while (true) {
+                // Slide the window along once the longest chunk might not fit in what's left of it
+                if (window.remaining() < MAX_CHUNK_BYTES && offset + window.limit() < size) {
+                    offset += window.position();
+                    window = in.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(mapBytes, size - offset));
+                }
+
+                long nChars, nBytes;
+                try {
+                    nChars = Varint.read(window);
+                    if (nChars == 0) break;
+                    nBytes = Varint.read(window);
+                }
+                catch (IllegalArgumentException e) {
+                    if (window.hasRemaining()) throw new IOException("Invalid compressed chunk header", e);
+                    throw new EOFException("Unexpected end of compressed file");
+                }
+                if (nChars < 0 || nChars > HuffmanOutputStream.CHUNK_CHARS || nBytes < 0 || nBytes > 7 * nChars) {
+                    throw new IOException("Invalid compressed chunk header");
+                }
+                if (nBytes > window.remaining()) {
+                    throw new EOFException("Unexpected end of compressed file");
+                }
+
+                if (buffer.remaining() < nChars) {
+                    written += drain(buffer, out);
+                }
+                ByteBuffer bitstring = window.duplicate();
+                bitstring.limit(window.position() + (int) nBytes);
+                try {
+                    if (huffman.decode(new BitReader(bitstring), buffer, nChars) < nChars) {
+                        throw new IOException("Invalid compressed chunk, bitstring too short");
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid compressed chunk", e);
+                }
+                window.position(window.position() + (int) nBytes);
+            }
+            return written + drain(buffer, out);
+        }
+    }
+
+    /*
+     * Writes out everything in buffer, leaving it empty
+     */
+    private static long drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        long n = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        return n;
+    }
+
+}
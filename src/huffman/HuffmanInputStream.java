@@ -0,0 +1,128 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * HuffmanInputStream: decompresses a stream written by
+ * {@link HuffmanOutputStream} a chunk at a time, with the same Encoding Map
+ * it was compressed with. Reads return -1 once the end marker is reached,
+ * and a stream that ends before then is reported as an EOFException.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+
+    /* Longest code is 56 bits, so no chunk's bitstring can be longer than this per character */
+    private static final int MAX_BYTES_PER_CHAR = 7;
+
+    private final Huffman huffman;
+    private byte[] chunk = new byte[0];
+    private byte[] decoded = new byte[0];
+    private int position, limit;
+    private boolean ended;
+
+    /**
+     * @param in      stream of compressed chunks
+     * @param huffman Encoding Map the stream was compressed with
+     */
+    public HuffmanInputStream(InputStream in, Huffman huffman) {
+        super(in);
+        if (huffman == null) {
+            throw new IllegalArgumentException("Invalid Huffman instance");
+        }
+        this.huffman = huffman;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !readChunk()) return -1;
+        return decoded[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
+        if (position == limit && !readChunk()) return -1;
+
+        int n = Math.min(len, limit - position);
+        System.arraycopy(decoded, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < limit || readChunk())) {
+            int step = (int) Math.min(n - skipped, limit - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {}
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /*
+     * Decodes the next chunk into decoded, or returns false at the end marker
+     */
+    private boolean readChunk() throws IOException {
+        if (ended) return false;
+
+        long nChars = Varint.read(in);
+        if (nChars == 0) {
+            ended = true;
+            return false;
+        }
+        long nBytes = Varint.read(in);
+        if (nChars < 0 || nChars > HuffmanOutputStream.CHUNK_CHARS
+            || nBytes < 0 || nBytes > nChars * MAX_BYTES_PER_CHAR) {
+            throw new IOException("Invalid compressed chunk header");
+        }
+
+        if (nBytes > chunk.length) chunk = Arrays.copyOf(chunk, (int) nBytes);
+        if (nChars > decoded.length) decoded = Arrays.copyOf(decoded, (int) nChars);
+        readFully(chunk, (int) nBytes);
+
+        try {
+            int n = huffman.decode(new BitReader(chunk, 0, (int) nBytes), decoded, 0, (int) nChars);
+            if (n < nChars) throw new IOException("Invalid compressed chunk, bitstring too short");
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compressed chunk", e);
+        }
+        position = 0;
+        limit = (int) nChars;
+        return true;
+    }
+
+    private void readFully(byte[] b, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            int n = in.read(b, off, len - off);
+            if (n < 0) throw new EOFException("Unexpected end of compressed stream");
+            off += n;
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HuffmanModel: an Encoding Map and the tables that decode it, built once
+ * from a corpus (or a serialized model) and never changed afterwards. The
+ * tables are reached through final fields, so any thread that sees the
+ * model sees them fully built, and none of them (nor the arrays inside the
+ * decode tables) is written to after construction, so one model can be
+ * shared by any number of threads with no locking. The
+ * coding itself is done by {@link Huffman#of(HuffmanModel)}, which only
+ * wraps the model; see {@link HuffmanModelRegistry} for sharing models
+ * across a process.
+ */
+public final class HuffmanModel {
+
+    final int alphabet;
+
+    /*
+     * Encoding table indexed by symbol: the code's bits shifted left by 8,
+     * OR'd with its length, or 0 for symbols missing from the corpus
+     */
+    final long[] codes;
+    final DecodeTable decodeTable;
+    /* Also decodes runs of short codes, a lookup at a time, when they are common enough (else null) */
+    final MultiDecodeTable multiTable;
+
+    /*
+     * Canonical codes: symbols get consecutive codes in order of code length,
+     * then symbol value, so a code is determined by the lengths alone
+     */
+    HuffmanModel(int alphabet, int[] lengths) {
+        this.alphabet = alphabet;
+        this.codes = Huffman.canonicalCodes(lengths, alphabet == Huffman.BYTES ? 256 : lengths.length);
+        this.decodeTable = new DecodeTable(codes);
+        this.multiTable = alphabet != Huffman.CODE_POINTS && MultiDecodeTable.worthwhile(codes)
+                          ? new MultiDecodeTable(codes) : null;
+    }
+
+    /**
+     * @param corpus Text with distributions like those that will be compressed
+     * @return model with a UTF-16 char alphabet
+     */
+    public static HuffmanModel ofChars(String corpus) {
+        return ofChars(corpus, Huffman.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * @param corpus        Text with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return model with a UTF-16 char alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every character in corpus its own code
+     */
+    public static HuffmanModel ofChars(String corpus, int maxCodeLength) {
+        return new HuffmanModel(Huffman.CHARS, Huffman.codeLengths(Histogram.ofChars(corpus), maxCodeLength));
+    }
+
+    /**
+     * @param corpus Bytes with distributions like those that will be compressed
+     * @return model with a byte alphabet
+     */
+    public static HuffmanModel ofBytes(byte[] corpus) {
+        return ofBytes(corpus, Huffman.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * @param corpus        Bytes with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return model with a byte alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every byte value in corpus its own code
+     */
+    public static HuffmanModel ofBytes(byte[] corpus, int maxCodeLength) {
+        return new HuffmanModel(Huffman.BYTES,
+                                Huffman.codeLengths(Histogram.ofBytes(ByteBuffer.wrap(corpus)), maxCodeLength));
+    }
+
+    /**
+     * @param corpus Text with distributions like those that will be compressed
+     * @return model with a Unicode code point alphabet
+     */
+    public static HuffmanModel ofCodePoints(String corpus) {
+        return ofCodePoints(corpus, Huffman.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * @param corpus        Text with distributions like those that will be compressed
+     * @param maxCodeLength Longest code allowed, from 1 to 56 bits
+     * @return model with a Unicode code point alphabet
+     * @throws IllegalArgumentException if maxCodeLength is out of range, or too short
+     *                                  to give every code point in corpus its own code
+     */
+    public static HuffmanModel ofCodePoints(String corpus, int maxCodeLength) {
+        return new HuffmanModel(Huffman.CODE_POINTS,
+                                Huffman.codeLengths(Histogram.ofCodePoints(corpus), maxCodeLength));
+    }
+
+    /**
+     * Loads a model written by {@link #serialize()}, without needing the corpus it
+     * was built from
+     *
+     * @param model The serialized code lengths
+     * @throws IllegalArgumentException if model is not a valid serialized model
+     */
+    public static HuffmanModel fromModel(byte[] model) {
+        ByteBuffer in = ByteBuffer.wrap(model);
+        int alphabet = in.hasRemaining() ? in.get() : 0;
+        if (alphabet != Huffman.CHARS && alphabet != Huffman.BYTES && alphabet != Huffman.CODE_POINTS) {
+            throw new IllegalArgumentException("Invalid model alphabet");
+        }
+
+        int maxSymbol = maxSymbol(alphabet);
+        long nSymbols = Varint.read(in);
+        if (nSymbols < 0 || nSymbols > maxSymbol + 1) {
+            throw new IllegalArgumentException("Invalid model, too many symbols");
+        }
+
+        int[] lengths = new int[alphabet == Huffman.BYTES ? 256 : 0];
+        long symbol = 0;
+        for (long i = 0; i < nSymbols; i++) {
+            long gap = Varint.read(in);
+            if (gap < 0 || gap > maxSymbol || (i > 0 && gap == 0)) {
+                throw new IllegalArgumentException("Invalid model, symbols out of order");
+            }
+            symbol = i == 0 ? gap : symbol + gap;
+            if (symbol > maxSymbol || !in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid model, truncated or out of range");
+            }
+            int length = in.get();
+            if (length < 1 || length > Huffman.MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid model code length");
+            }
+            if (symbol >= lengths.length)
+                lengths = Arrays.copyOf(lengths, (int) symbol + 1);
+            lengths[(int) symbol] = length;
+        }
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Invalid model, trailing bytes");
+        }
+
+        return new HuffmanModel(alphabet, lengths);
+    }
+
+    /**
+     * Writes out the Encoding Map as compactly as possible. Canonical codes only
+     * depend on each symbol's code length, so that's all it holds: an alphabet
+     * byte (1 = chars, 2 = bytes, 3 = code points), the number of symbols as a
+     * varint, then for each symbol in increasing order, its distance from the
+     * previous one as a varint (the first one's value instead) followed by its
+     * code length as a byte.
+     *
+     * @return The serialized model, for {@link #fromModel(byte[])}
+     */
+    public byte[] serialize() {
+        int nSymbols = 0, size = 1;
+        for (int c = 0, previous = 0; c < codes.length; c++) {
+            if (codes[c] == 0) continue;
+            size += Varint.size(nSymbols == 0 ? c : c - previous) + 1;
+            nSymbols++;
+            previous = c;
+        }
+
+        byte[] model = new byte[size + Varint.size(nSymbols)];
+        model[0] = (byte) alphabet;
+        int position = Varint.write(nSymbols, model, 1);
+        for (int c = 0, previous = 0, written = 0; c < codes.length; c++) {
+            if (codes[c] == 0) continue;
+            position = Varint.write(written++ == 0 ? c : c - previous, model, position);
+            model[position++] = (byte) (codes[c] & 0xFF);
+            previous = c;
+        }
+        return model;
+    }
+
+    private static int maxSymbol(int alphabet) {
+        switch (alphabet) {
+            case Huffman.BYTES: return 0xFF;
+            case Huffman.CODE_POINTS: return Character.MAX_CODE_POINT;
+            default: return Character.MAX_VALUE;
+        }
+    }
+
+}
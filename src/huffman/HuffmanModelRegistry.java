@@ -0,0 +1,254 @@
+package huffman;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * HuffmanModelRegistry: builds each {@link HuffmanModel} once and hands the
+ * same instance to every thread that asks for a model of the same corpus.
+ * Models are keyed by a fingerprint of the corpus: the alphabet, the code
+ * length cap, and the SHA-256 of its contents. Hashing a corpus costs about
+ * as much as building its model, so each String corpus's digest is
+ * remembered for as long as the String is around, and later requests with
+ * it cost a hash map lookup (byte[] corpora are hashed every time); callers
+ * that keep fingerprints can go straight to {@link #get(String)}.
+ *
+ * The most recently used models are held on to, up to a fixed number, and
+ * the rest only weakly: a model evicted from the recent ones is still
+ * found for as long as anything else uses it, and dropped once nothing
+ * does. While one thread builds a model, every other thread asking for it
+ * waits for that build instead of starting its own.
+ */
+public class HuffmanModelRegistry {
+
+    /* Models held on to by the shared registry, however rarely they're used */
+    static final int DEFAULT_CAPACITY = 64;
+
+    private static final HuffmanModelRegistry SHARED = new HuffmanModelRegistry(DEFAULT_CAPACITY);
+
+    /* Chars (or bytes) fed to the digest at a time */
+    private static final int DIGEST_CHUNK = 1 << 13;
+
+    private final Map<String, HuffmanModel> recent;
+    private final Map<String, Entry> all = new HashMap<>();
+    private final ReferenceQueue<HuffmanModel> collected = new ReferenceQueue<>();
+    private final Map<String, CompletableFuture<HuffmanModel>> building = new ConcurrentHashMap<>();
+    /* Digest of each String corpus's contents, dropped along with the String */
+    private final Map<String, String> digests = new WeakHashMap<>();
+
+    /**
+     * @param capacity most recently used models held on to, at least 0
+     */
+    public HuffmanModelRegistry(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+        this.recent = new LinkedHashMap<String, HuffmanModel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HuffmanModel> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the registry shared by the whole process
+     */
+    public static HuffmanModelRegistry shared() { return SHARED; }
+
+    /**
+     * @return the model {@link HuffmanModel#ofChars(String, int)} builds from corpus
+     */
+    public HuffmanModel ofChars(String corpus, int maxCodeLength) {
+        return model(key(Huffman.CHARS, maxCodeLength, digest(corpus)),
+                     () -> HuffmanModel.ofChars(corpus, maxCodeLength));
+    }
+
+    /**
+     * Hashes all of corpus on every call: unlike a String, an array can change after
+     * it is hashed, so its digest isn't remembered. Callers that look up the same
+     * corpus often should keep its {@link #fingerprint(int, int, byte[])} and use
+     * {@link #get(String)}.
+     *
+     * @return the model {@link HuffmanModel#ofBytes(byte[], int)} builds from corpus
+     */
+    public HuffmanModel ofBytes(byte[] corpus, int maxCodeLength) {
+        return model(fingerprint(Huffman.BYTES, maxCodeLength, corpus),
+                     () -> HuffmanModel.ofBytes(corpus, maxCodeLength));
+    }
+
+    /**
+     * @return the model {@link HuffmanModel#ofCodePoints(String, int)} builds from corpus
+     */
+    public HuffmanModel ofCodePoints(String corpus, int maxCodeLength) {
+        return model(key(Huffman.CODE_POINTS, maxCodeLength, digest(corpus)),
+                     () -> HuffmanModel.ofCodePoints(corpus, maxCodeLength));
+    }
+
+    /**
+     * @param fingerprint a fingerprint from {@link #fingerprint(int, int, CharSequence)}
+     *                    or {@link #fingerprint(int, int, byte[])}
+     * @return the model registered under fingerprint, or null if there is none (yet)
+     */
+    public synchronized HuffmanModel get(String fingerprint) {
+        HuffmanModel model = recent.get(fingerprint);
+        if (model != null) return model;
+
+        Entry entry = all.get(fingerprint);
+        model = entry == null ? null : entry.get();
+        if (model != null) recent.put(fingerprint, model);
+        return model;
+    }
+
+    /**
+     * @return number of models registered and not yet collected
+     */
+    public synchronized int size() {
+        expunge();
+        return all.size();
+    }
+
+    /*
+     * The registered model, or the one another thread is building, or a new one
+     */
+    private HuffmanModel model(String fingerprint, Supplier<HuffmanModel> build) {
+        HuffmanModel model = get(fingerprint);
+        if (model != null) return model;
+
+        CompletableFuture<HuffmanModel> mine = new CompletableFuture<>();
+        CompletableFuture<HuffmanModel> theirs = building.putIfAbsent(fingerprint, mine);
+        if (theirs != null) {
+            try {
+                return theirs.join();
+            }
+            catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            // Another thread may have finished building it in between
+            model = get(fingerprint);
+            if (model == null) {
+                model = build.get();
+                put(fingerprint, model);
+            }
+            mine.complete(model);
+            return model;
+        }
+        catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            building.remove(fingerprint, mine);
+        }
+    }
+
+    private synchronized void put(String fingerprint, HuffmanModel model) {
+        expunge();
+        all.put(fingerprint, new Entry(fingerprint, model, collected));
+        recent.put(fingerprint, model);
+    }
+
+    /*
+     * Drops the entries of models that have been garbage collected
+     */
+    private void expunge() {
+        for (Object ref; (ref = collected.poll()) != null; ) {
+            Entry entry = (Entry) ref;
+            all.remove(entry.fingerprint, entry);
+        }
+    }
+
+    // -----------------------------------------------
+    // Fingerprints
+    // -----------------------------------------------
+
+    /**
+     * @param alphabet      the alphabet's byte in a serialized model
+     * @param maxCodeLength cap the model is built with
+     * @return the alphabet, the cap, and the hex SHA-256 of corpus as UTF-16
+     */
+    public static String fingerprint(int alphabet, int maxCodeLength, CharSequence corpus) {
+        MessageDigest digest = sha256();
+        ByteBuffer bytes = ByteBuffer.allocate(2 * DIGEST_CHUNK);
+        for (int from = 0; from < corpus.length(); from += DIGEST_CHUNK) {
+            int to = Math.min(corpus.length(), from + DIGEST_CHUNK);
+            bytes.clear();
+            bytes.asCharBuffer().put(CharBuffer.wrap(corpus, from, to));
+            digest.update(bytes.array(), 0, 2 * (to - from));
+        }
+        return key(alphabet, maxCodeLength, hex(digest.digest()));
+    }
+
+    /**
+     * @param alphabet      the alphabet's byte in a serialized model
+     * @param maxCodeLength cap the model is built with
+     * @return the alphabet, the cap, and the hex SHA-256 of corpus
+     */
+    public static String fingerprint(int alphabet, int maxCodeLength, byte[] corpus) {
+        return key(alphabet, maxCodeLength, hex(sha256().digest(corpus)));
+    }
+
+    private static String key(int alphabet, int maxCodeLength, String digest) {
+        return alphabet + ":" + maxCodeLength + ":" + digest;
+    }
+
+    /*
+     * Hex SHA-256 of corpus, remembered until corpus is collected
+     */
+    private String digest(String corpus) {
+        synchronized (digests) {
+            String digest = digests.get(corpus);
+            if (digest != null) return digest;
+        }
+        String fingerprint = fingerprint(0, 0, corpus);
+        String digest = fingerprint.substring(fingerprint.lastIndexOf(':') + 1);
+        synchronized (digests) {
+            digests.put(corpus, digest);
+        }
+        return digest;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to have SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class Entry extends WeakReference<HuffmanModel> {
+
+        final String fingerprint;
+
+        Entry(String fingerprint, HuffmanModel model, ReferenceQueue<HuffmanModel> queue) {
+            super(model, queue);
+            this.fingerprint = fingerprint;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package huffman;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * HuffmanOutputStream: compresses everything written to it with a Huffman
+ * instance's Encoding Map, a chunk at a time, so a stream of any length
+ * only ever holds one chunk's worth of input and output in memory. Bytes
+ * are coded as the characters with the same values (ISO-8859-1), so the
+ * corpus should be text in that range, i.e. ASCII. The compressed stream
+ * is laid out as a series of chunks:
+ * varint number of characters, varint number of bytes, bitstring
+ * (each bitstring 0-padded to a whole byte) and ends with a varint 0.
+ * Read it back with {@link HuffmanInputStream}.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+
+    /* Most characters in one chunk, also the most a HuffmanInputStream will accept */
+    static final int CHUNK_CHARS = 1 << 16;
+
+    private final Huffman huffman;
+    private final byte[] pending;
+    private int nPending;
+    private byte[] chunk = new byte[0];
+    private boolean finished;
+
+    /**
+     * @param out     stream the compressed chunks are written to
+     * @param huffman Encoding Map to compress with
+     */
+    public HuffmanOutputStream(OutputStream out, Huffman huffman) {
+        this(out, huffman, CHUNK_CHARS);
+    }
+
+    /**
+     * @param out        stream the compressed chunks are written to
+     * @param huffman    Encoding Map to compress with
+     * @param chunkChars number of characters buffered before a chunk is compressed,
+     *                   from 1 to 65536
+     */
+    public HuffmanOutputStream(OutputStream out, Huffman huffman, int chunkChars) {
+        super(out);
+        if (huffman == null) {
+            throw new IllegalArgumentException("Invalid Huffman instance");
+        }
+        if (chunkChars < 1 || chunkChars > CHUNK_CHARS) {
+            throw new IllegalArgumentException("Invalid chunk size");
+        }
+
+        this.huffman = huffman;
+        this.pending = new byte[chunkChars];
+    }
+
+    /**
+     * @throws IllegalArgumentException if b isn't a character of the corpus
+     */
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (nPending == pending.length) writeChunk();
+        pending[nPending++] = (byte) b;
+    }
+
+    /**
+     * @throws IllegalArgumentException if b holds a byte that isn't a character of the corpus
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            if (nPending == pending.length) writeChunk();
+            int n = Math.min(len, pending.length - nPending);
+            System.arraycopy(b, off, pending, nPending, n);
+            nPending += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses whatever has been written so far into a (possibly short) chunk, then
+     * flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        writeChunk();
+        out.flush();
+    }
+
+    /**
+     * Compresses what's left and writes the end marker, without closing the
+     * underlying stream. Nothing more can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        writeChunk();
+        out.write(0);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (nPending == 0) return;
+
+        int nBytes = (int) ((huffman.bitLength(pending, 0, nPending) + 7) / 8);
+        int size = Varint.size(nPending) + Varint.size(nBytes) + nBytes;
+        if (size > chunk.length) chunk = Arrays.copyOf(chunk, size);
+
+        int position = Varint.write(nPending, chunk, 0);
+        position = Varint.write(nBytes, chunk, position);
+        position = huffman.encode(pending, 0, nPending, chunk, position);
+        out.write(chunk, 0, position);
+        nPending = 0;
+    }
+
+    private void checkOpen() throws IOException {
+        if (finished) throw new IOException("Stream finished");
+    }
+
+}
@@ -4,7 +4,24 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class HuffmanTests {
 
@@ -64,8 +81,8 @@ public class HuffmanTests {
     public void comp_t5() {
         Huffman h = new Huffman("ABCDEFGHIJ");
         // Encoding Map:
-        // {A=1100, B=001, C=011, D=1110, E=101, F=010, G=100, H=1111, I=000, J=1101}
-        byte[] compressed = {10, -62, -6, -87, -29, 64};
+        // {A=1100, B=000, C=001, D=1101, E=010, F=011, G=100, H=1110, I=101, J=1111}
+        byte[] compressed = {10, -64, 117, 57, -41, -64};
         assertArrayEquals(compressed, h.compress("ABCDEFGHIJ"));
     }
 
@@ -73,8 +90,8 @@ public class HuffmanTests {
     public void comp_t6() {
         Huffman h = new Huffman("ABCDEFGHIJ");
         // Encoding Map:
-        // {A=1100, B=001, C=011, D=1110, E=101, F=010, G=100, H=1111, I=000, J=1101}
-        byte[] compressed = {6, -52, -62, 72};
+        // {A=1100, B=000, C=001, D=1101, E=010, F=011, G=100, H=1110, I=101, J=1111}
+        byte[] compressed = {6, -52, -64, 0};
         // Not that we would always want to use this encoding map for this corpus, but
         // we *could*
         assertArrayEquals(compressed, h.compress("AAABBB"));
@@ -93,8 +110,8 @@ public class HuffmanTests {
     public void comp_t8() {
         Huffman h = new Huffman("1223334444555556666667777777");
         // Encoding Map:
-        // {1=0010, 2=0011, 3=000, 4=110, 5=111, 6=01, 7=10}
-        byte[] compressed = {7, 35, 27, -80};
+        // {1=1110, 2=1111, 3=100, 4=101, 5=110, 6=00, 7=01}
+        byte[] compressed = {7, -17, -105, 8};
         assertArrayEquals(compressed, h.compress("1234567"));
     }
 
@@ -102,19 +119,39 @@ public class HuffmanTests {
     public void comp_t9() {
         Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
         // Encoding Map:
-        // { 
-        //   ' '=00, !=1011010, a=1101, c=10011, d=01101, e=1110, f=010011, H=010000, h=1011011, i=0111, l=0101,
-        //   .=10010,
-        //   n=1100, o=1000, P=101100, s=1010, T=010001, t=1111, u=10111, W=010010, w=01100
+        // {
+        //   ' '=00, !=111000, a=0100, c=11001, d=11010, e=0101, f=111101, H=111001, h=111110, i=0110, l=0111,
+        //   .=11000,
+        //   n=1000, o=1001, P=111010, s=1010, T=111011, t=1011, u=11011, W=111100, w=111111
         // }
         byte[] compressed = {
-                84, 69, 8, -94, 40, -47, 60, -86, -107, -9, -33, 115, -7, 24, -35, -125, -75, -89, 57, 95, -28, 113,
-                22, 105, -33, 92, 79, 107, -15, 24, 102, -25, -39, -34, -121, -77, 109, -90, -86, -56, 73, -39, 32
+                84, -17, -26, -95, -88, 67, -35, -69, -108, -79, 107, 25, 92, 28, -49, -28, -21, 69, -55, 74, -93, 88,
+                -48, 33, 107, 86, 101, 41, 120, 58, -36, 102, -10, -106, -45, 2, 70, -124, 119, -63, -28, -1, -128
         };
         assertArrayEquals(compressed, h.compress(
                 "This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow."));
     }
 
+    @Test
+    public void comp_t10() {
+        Huffman h = new Huffman("AAAA");
+        // Encoding Map:
+        // {A=0} (a lone character still takes 1 bit)
+        byte[] compressed = {3, 0};
+        assertArrayEquals(compressed, h.compress("AAA"));
+    }
+
+    @Test
+    public void comp_t11() {
+        Huffman h = new Huffman("AB");
+        // bytes 0-1: 1100 1000, 0000 0001 = 200 as a varint (message length = 200)
+        // bytes 2-26: 200 bits of 0 = "A"
+        byte[] compressed = new byte[27];
+        compressed[0] = -56;
+        compressed[1] = 1;
+        assertArrayEquals(compressed, h.compress(String.join("", Collections.nCopies(200, "A"))));
+    }
+
 
     // Decompression Tests
     // -----------------------------------------------
@@ -169,8 +206,8 @@ public class HuffmanTests {
     public void decomp_t5() {
         Huffman h = new Huffman("ABCDEFGHIJ");
         // Encoding Map:
-        // {A=1100, B=001, C=011, D=1110, E=101, F=010, G=100, H=1111, I=000, J=1101}
-        byte[] compressed = {10, -62, -6, -87, -29, 64};
+        // {A=1100, B=000, C=001, D=1101, E=010, F=011, G=100, H=1110, I=101, J=1111}
+        byte[] compressed = {10, -64, 117, 57, -41, -64};
         assertEquals("ABCDEFGHIJ", h.decompress(compressed));
     }
 
@@ -178,8 +215,8 @@ public class HuffmanTests {
     public void decomp_t6() {
         Huffman h = new Huffman("ABCDEFGHIJ");
         // Encoding Map:
-        // {A=1100, B=001, C=011, D=1110, E=101, F=010, G=100, H=1111, I=000, J=1101}
-        byte[] compressed = {6, -52, -62, 72};
+        // {A=1100, B=000, C=001, D=1101, E=010, F=011, G=100, H=1110, I=101, J=1111}
+        byte[] compressed = {6, -52, -64, 0};
         assertEquals("AAABBB", h.decompress(compressed));
     }
 
@@ -196,8 +233,8 @@ public class HuffmanTests {
     public void decomp_t8() {
         Huffman h = new Huffman("1223334444555556666667777777");
         // Encoding Map:
-        // {1=0010, 2=0011, 3=000, 4=110, 5=111, 6=01, 7=10}
-        byte[] compressed = {7, 35, 27, -80};
+        // {1=1110, 2=1111, 3=100, 4=101, 5=110, 6=00, 7=01}
+        byte[] compressed = {7, -17, -105, 8};
         assertEquals("1234567", h.decompress(compressed));
     }
 
@@ -205,17 +242,900 @@ public class HuffmanTests {
     public void decomp_t9() {
         Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
         // Encoding Map:
-        // { 
-        //   ' '=00, !=1011010, a=1101, c=10011, d=01101, e=1110, f=010011, H=010000, h=1011011, i=0111, l=0101,
-        //   .=10010,
-        //   n=1100, o=1000, P=101100, s=1010, T=010001, t=1111, u=10111, W=010010, w=01100
+        // {
+        //   ' '=00, !=111000, a=0100, c=11001, d=11010, e=0101, f=111101, H=111001, h=111110, i=0110, l=0111,
+        //   .=11000,
+        //   n=1000, o=1001, P=111010, s=1010, T=111011, t=1011, u=11011, W=111100, w=111111
         // }
         byte[] compressed = {
-                84, 69, 8, -94, 40, -47, 60, -86, -107, -9, -33, 115, -7, 24, -35, -125, -75, -89, 57, 95, -28, 113,
-                22, 105, -33, 92, 79, 107, -15, 24, 102, -25, -39, -34, -121, -77, 109, -90, -86, -56, 73, -39, 32
+                84, -17, -26, -95, -88, 67, -35, -69, -108, -79, 107, 25, 92, 28, -49, -28, -21, 69, -55, 74, -93, 88,
+                -48, 33, 107, 86, 101, 41, 120, 58, -36, 102, -10, -106, -45, 2, 70, -124, 119, -63, -28, -1, -128
         };
         assertEquals("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.",
                      h.decompress(compressed));
     }
 
+    @Test
+    public void decomp_t10() {
+        Huffman h = new Huffman("AAAA");
+        // Encoding Map:
+        // {A=0} (a lone character still takes 1 bit)
+        byte[] compressed = {3, 0};
+        assertEquals("AAA", h.decompress(compressed));
+    }
+
+    @Test
+    public void decomp_t11() {
+        Huffman h = new Huffman("AB");
+        // byte 0: 0000 1000 = 8 (message length = 8)
+        // byte 1: 0101 0101 = 85 (0 = "A", 1 = "B")
+        // [!] No padding, the last code ends on the last bit
+        byte[] compressed = {8, 85};
+        assertEquals("ABABABAB", h.decompress(compressed));
+    }
+
+    @Test
+    public void decomp_t12() {
+        // Fibonacci counts make a maximally deep trie: codes from 1 up to 15 bits,
+        // longer than the decoder's first lookup table reaches
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0, count = 1, next = 1; i < 16; i++, next += count, count = next - count) {
+            for (int j = 0; j < count; j++) {
+                corpus.append((char) ('A' + i));
+            }
+        }
+        Huffman h = new Huffman(corpus.toString());
+        String message = "PONMLKJIHGFEDCBAABCDEFGHIJKLMNOP";
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+
+    @Test
+    public void decomp_t13() {
+        Huffman h = new Huffman("ABABBABA");
+        // Over 127 characters, so the length header takes 2 bytes
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            message.append(i % 3 == 0 ? 'A' : 'B');
+        }
+        assertEquals(message.toString(), h.decompress(h.compress(message.toString())));
+    }
+
+
+
+    // Model Tests
+    // -----------------------------------------------
+    @Test
+    public void model_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        // byte 0: 1 (alphabet: chars)
+        // byte 1: 3 (number of characters)
+        // bytes 2-7: gap from previous character, then code length, per character
+        //            (A = 65, length 2), (B = 65 + 1, length 1), (C = 66 + 1, length 2)
+        byte[] model = {1, 3, 65, 2, 1, 1, 1, 2};
+        assertArrayEquals(model, h.serializeModel());
+    }
+
+    @Test
+    public void model_t1() {
+        Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
+        // A model loaded without the corpus decodes what the original compressed, and vice versa
+        Huffman loaded = Huffman.fromModel(h.serializeModel());
+        String message = "Punctuation is a full test. Wow!";
+        assertEquals(message, loaded.decompress(h.compress(message)));
+        assertArrayEquals(h.compress(message), loaded.compress(message));
+    }
+
+
+
+    // Stream Tests
+    // -----------------------------------------------
+    @Test
+    public void stream_t0() throws IOException {
+        Huffman h = new Huffman("AB");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, h)) {
+            out.write("ABBA".getBytes(StandardCharsets.US_ASCII));
+        }
+        // byte 0: 4 (characters in the chunk)
+        // byte 1: 1 (bytes in the chunk)
+        // byte 2: 0110 0000 = 96 (0 = "A", 1 = "B")
+        // byte 3: 0 (end of stream)
+        assertArrayEquals(new byte[] {4, 1, 96, 0}, compressed.toByteArray());
+    }
+
+    @Test
+    public void stream_t1() throws IOException {
+        Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
+        String message = String.join(" ", Collections.nCopies(100, "This is a test. How odd!"));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        // Chunks of 7 characters, so the message is spread over many of them
+        try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, h, 7)) {
+            out.write(message.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()), h)) {
+            byte[] buffer = new byte[10];
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                decompressed.write(buffer, 0, n);
+            }
+        }
+        assertEquals(message, new String(decompressed.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void stream_t2() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (WritableByteChannel out = HuffmanChannels.newWritableChannel(Channels.newChannel(compressed), h)) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(6);
+            direct.put("CABBAC".getBytes(StandardCharsets.US_ASCII)).flip();
+            out.write(direct);
+        }
+
+        ByteBuffer decompressed = ByteBuffer.allocateDirect(16);
+        try (ReadableByteChannel in = HuffmanChannels.newReadableChannel(
+                Channels.newChannel(new ByteArrayInputStream(compressed.toByteArray())), h)) {
+            while (in.read(decompressed) >= 0) {}
+        }
+        byte[] message = new byte[decompressed.flip().remaining()];
+        decompressed.get(message);
+        assertEquals("CABBAC", new String(message, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void stream_t3() throws IOException {
+        Huffman h = new Huffman("AB");
+        // 10-byte varints over 63 bits read back negative, as the character count and as the byte count
+        byte[] negative = {-1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+        byte[][] headers = {negative, new byte[11]};
+        headers[1][0] = 4;
+        System.arraycopy(negative, 0, headers[1], 1, negative.length);
+        for (byte[] header : headers) {
+            try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(header), h)) {
+                in.read();
+                fail();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+
+
+    // Block Tests
+    // -----------------------------------------------
+    @Test
+    public void blocks_t0() {
+        Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
+        ForkJoinPool pool = new ForkJoinPool(3);
+        // Blocks of 5 characters, so the message is spread over many tasks
+        HuffmanBlocks blocks = new HuffmanBlocks(h, 5, pool);
+        String message = String.join(" ", Collections.nCopies(50, "This is a test. How odd!"));
+        assertEquals(message, blocks.decompress(blocks.compress(message)));
+        assertEquals("", blocks.decompress(blocks.compress("")));
+        pool.shutdown();
+    }
+
+    @Test
+    public void blocks_t1() {
+        Huffman h = new Huffman("AB");
+        HuffmanBlocks blocks = new HuffmanBlocks(h, 4, ForkJoinPool.commonPool());
+        byte[] frame = blocks.compress("ABBAABBA");
+        // bytes 0-3: magic, byte 4: 4 characters, byte 5: 1 byte, bytes 6-9: CRC32C, byte 10: 0110 0000 = 96
+        assertEquals(96, frame[10]);
+        frame[10] = 97;
+        try {
+            blocks.decompress(frame);
+            fail("[X] Corrupted block decompressed");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+
+
+    @Test
+    public void blocks_t2() {
+        Huffman h = new Huffman("This is a full sentence. How odd to see it in a test case! Punctuation and all. Wow.");
+        String message = String.join(" ", Collections.nCopies(50, "This is a test. How odd!"));
+        HuffmanBlocks indexed = new HuffmanBlocks(h, 16, ForkJoinPool.commonPool(), true);
+        HuffmanBlocks plain = new HuffmanBlocks(h, 16, ForkJoinPool.commonPool());
+
+        // Ranges inside one block, across several, and empty, with and without the seek index
+        for (HuffmanBlocks blocks : Arrays.asList(indexed, plain)) {
+            byte[] frame = blocks.compress(message);
+            assertEquals(message, blocks.decompress(frame));
+            assertEquals(message.substring(17, 20), blocks.decompress(frame, 17, 20));
+            assertEquals(message.substring(100, 700), blocks.decompress(frame, 100, 700));
+            assertEquals(message, blocks.decompress(frame, 0, message.length()));
+            assertEquals("", blocks.decompress(frame, 48, 48));
+        }
+    }
+
+
+
+    // Alphabet Tests
+    // -----------------------------------------------
+    @Test
+    public void alphabet_t0() {
+        byte[] corpus = {0, -1, -1, 127, -128, -128, -128, 0};
+        Huffman h = Huffman.ofBytes(corpus);
+        // Encoding Map:
+        // {0=10, 127=110, -128=0, -1=111} (bytes as unsigned symbols: 0, 127, 128, 255)
+        byte[] compressed = {4, 120};
+        assertArrayEquals(compressed, h.compress(new byte[] {-128, -1, 0, -128}));
+        assertArrayEquals(new byte[] {-128, -1, 0, -128}, h.decompressBytes(compressed));
+    }
+
+    @Test
+    public void alphabet_t1() {
+        Huffman h = Huffman.ofBytes(new byte[] {1, 2, 2, 3, 3, 3});
+        ByteBuffer message = ByteBuffer.allocateDirect(5).put(new byte[] {3, 2, 1, 3, 3});
+        message.flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect((int) h.compressedSize(message));
+        ByteBuffer decompressed = ByteBuffer.allocateDirect(5);
+
+        // Direct buffers in and out, nothing allocated by the codec
+        assertEquals(compressed.capacity(), h.compress(message, compressed));
+        compressed.flip();
+        assertEquals(5, h.decompress(compressed, decompressed));
+        assertEquals(0, compressed.remaining());
+        decompressed.flip();
+        assertEquals(ByteBuffer.wrap(new byte[] {3, 2, 1, 3, 3}), decompressed);
+    }
+
+    @Test
+    public void alphabet_t2() {
+        // Supplementary characters are a surrogate pair of chars, but a single code point
+        String corpus = "a\uD83D\uDE00b\uD83D\uDE00\uD83D\uDE00";
+        Huffman h = Huffman.ofCodePoints(corpus);
+        byte[] compressed = h.compress(corpus);
+        assertEquals(5, compressed[0]);
+        assertEquals(corpus, h.decompress(compressed));
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) h.compressedSize(corpus));
+        h.compress(corpus, buffer);
+        buffer.flip();
+        StringBuilder out = new StringBuilder();
+        assertEquals(5, h.decompress(buffer, out));
+        assertEquals(corpus, out.toString());
+        assertEquals(corpus, Huffman.fromModel(h.serializeModel()).decompress(compressed));
+    }
+
+
+    @Test
+    public void alphabet_t3() {
+        // Long enough to be counted in parallel chunks; shifting the pattern along puts chunk
+        // boundaries between the halves of a surrogate pair
+        for (int shift = 0; shift < 5; shift++) {
+            StringBuilder corpus = new StringBuilder(String.join("", Collections.nCopies(shift, "x")));
+            while (corpus.length() < 3 * Histogram.PARALLEL_CHUNK) {
+                corpus.append("ab\uD83D\uDE00c");
+            }
+            long[] counts = Histogram.ofCodePoints(corpus);
+            int nPatterns = (corpus.length() - shift) / 5;
+            assertEquals(0x1F600 + 1, counts.length);
+            assertEquals(nPatterns, counts['a']);
+            assertEquals(nPatterns, counts[0x1F600]);
+            assertEquals(0, counts[0xD83D]);
+            assertEquals(corpus.length(), Arrays.stream(Histogram.ofChars(corpus)).sum());
+        }
+    }
+
+    @Test
+    public void alphabet_t4() {
+        // 1-bit codes: the 100 byte message is a length byte then 13 bytes of bitstring
+        Huffman h = Huffman.ofBytes(new byte[] {1, 2});
+        byte[] message = new byte[100];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (1 + i % 3 % 2);
+        }
+        byte[] compressed = h.compress(message);
+        assertEquals(14, compressed.length);
+
+        // Cut off after 6 bytes of bitstring, only the first 48 bytes can be decoded
+        ByteBuffer out = ByteBuffer.allocate(message.length);
+        assertEquals(48, h.decompress(ByteBuffer.wrap(compressed, 0, 7), out));
+        assertEquals(48, out.position());
+        assertEquals(ByteBuffer.wrap(message, 0, 48), out.flip());
+    }
+
+    @Test
+    public void alphabet_t5() {
+        // Small corpora are counted into tables only as long as their largest char
+        assertArrayEquals(new long[] {0, 2, 0, 1}, Histogram.ofChars("\1\3\1"));
+        long[] counts = Histogram.ofCodePoints("ab\uD83D\uDE00b");
+        assertEquals(0x1F600 + 1, counts.length);
+        assertEquals(2, counts['b']);
+        assertEquals(1, counts[0x1F600]);
+        assertEquals(4, Arrays.stream(counts).sum());
+
+        // Either side of the threshold, the counts come out the same
+        StringBuilder corpus = new StringBuilder();
+        while (corpus.length() < Histogram.SMALL_CHUNK - 1) {
+            corpus.append("xy\uD83D\uDE00z\u0101");
+        }
+        corpus.setLength(Histogram.SMALL_CHUNK - 1);
+        long[] small = Histogram.ofCodePoints(corpus);
+        corpus.append('x');
+        long[] large = Histogram.ofCodePoints(corpus);
+        large['x']--;
+        assertArrayEquals(large, small);
+        assertEquals(corpus.length() - 1, Arrays.stream(Histogram.ofChars(corpus.substring(1))).sum());
+    }
+
+    // -----------------------------------------------
+    // Length Limit Tests
+    // -----------------------------------------------
+    @Test
+    public void limit_t0() {
+        // Unlimited, these counts would give lengths {4, 4, 3, 2, 1}
+        assertArrayEquals(new int[] {3, 3, 3, 3, 1}, PackageMerge.lengths(new long[] {1, 1, 2, 4, 8}, 3));
+        assertArrayEquals(new int[] {2, 0, 2, 2, 2}, PackageMerge.lengths(new long[] {1, 0, 1, 1, 1}, 2));
+        assertArrayEquals(new int[] {0, 1}, PackageMerge.lengths(new long[] {0, 5}, 4));
+    }
+
+    @Test
+    public void limit_t1() {
+        // Fibonacci counts make the deepest possible Trie, 25 bits here
+        StringBuilder corpus = new StringBuilder();
+        for (int c = 0, a = 1, b = 1; c < 26; c++, b = a + b, a = b - a) {
+            corpus.append(String.join("", Collections.nCopies(a, String.valueOf((char) ('A' + c)))));
+        }
+        String message = corpus.toString();
+        Huffman unlimited = new Huffman(message), limited = new Huffman(message, 12);
+        assertEquals(25, unlimited.maxCodeLength());
+        assertEquals(12, limited.maxCodeLength());
+        assertTrue(limited.compressedSize(message) >= unlimited.compressedSize(message));
+        assertEquals(message, limited.decompress(limited.compress(message)));
+        assertEquals(message, Huffman.fromModel(limited.serializeModel()).decompress(limited.compress(message)));
+
+        // A limit the Trie already fits in leaves the codes alone
+        assertArrayEquals(unlimited.serializeModel(), new Huffman(message, 25).serializeModel());
+    }
+
+    @Test
+    public void limit_t2() {
+        byte[] corpus = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            corpus[b] = (byte) b;
+        }
+        assertEquals(8, Huffman.ofBytes(corpus, 8).maxCodeLength());
+        for (int limit : new int[] {0, 7, 57}) {
+            try {
+                Huffman.ofBytes(corpus, limit);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    // -----------------------------------------------
+    // Multi-Symbol Decoding Tests
+    // -----------------------------------------------
+    @Test
+    public void multi_t0() {
+        // a=0, b=10, c=11
+        long[] codes = {0b0 << 8 | 1, 0b10 << 8 | 2, 0b11 << 8 | 2};
+        MultiDecodeTable table = new MultiDecodeTable(codes);
+        long entry = table.entry(0b0_10_11_0_10_11L << Long.SIZE - 10);
+        assertEquals(3, MultiDecodeTable.count(entry));
+        assertEquals(5, MultiDecodeTable.used(entry));
+        assertEquals(0L << 16 | 1L << 32 | 2L << 48, entry >>> 16 << 16);
+        assertTrue(MultiDecodeTable.worthwhile(codes));
+    }
+
+    @Test
+    public void multi_t1() {
+        // Mostly short codes, with a tail of rare characters too long for a packed entry
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            corpus.append("eeeetttaaoin ".charAt(i % 13));
+            if (i % 97 == 0) corpus.append((char) ('A' + i % 26));
+        }
+        String message = corpus.toString();
+        Huffman h = new Huffman(message);
+        assertTrue(h.decodesMultiSymbol());
+        byte[] compressed = h.compress(message);
+        assertEquals(message, h.decompress(compressed));
+        assertEquals(message, new HuffmanBlocks(h, 1000, ForkJoinPool.commonPool()).decompress(
+            new HuffmanBlocks(h, 1000, ForkJoinPool.commonPool()).compress(message)));
+
+        StringBuilder out = new StringBuilder();
+        assertEquals(message.length(), h.decompress(ByteBuffer.wrap(compressed), out));
+        assertEquals(message, out.toString());
+
+        // Every prefix of the message still comes out exactly, however many symbols are left
+        for (int length = 0; length < 40; length++) {
+            String prefix = message.substring(0, length);
+            assertEquals(prefix, h.decompress(h.compress(prefix)));
+        }
+
+        byte[] bytes = message.getBytes(StandardCharsets.ISO_8859_1);
+        Huffman hb = Huffman.ofBytes(bytes);
+        assertTrue(hb.decodesMultiSymbol());
+        assertArrayEquals(bytes, hb.decompressBytes(hb.compress(bytes)));
+        ByteBuffer decoded = ByteBuffer.allocate(bytes.length);
+        hb.decompress(ByteBuffer.wrap(hb.compress(bytes)), decoded);
+        assertArrayEquals(bytes, decoded.array());
+
+        // Code points, and flat distributions, stick to one symbol a lookup
+        assertTrue(!Huffman.ofCodePoints(message).decodesMultiSymbol());
+        byte[] flat = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            flat[b] = (byte) b;
+        }
+        assertTrue(!Huffman.ofBytes(flat).decodesMultiSymbol());
+    }
+
+    // -----------------------------------------------
+    // Interleaved Stream Tests
+    // -----------------------------------------------
+    @Test
+    public void interleaved_t0() {
+        Huffman h = new Huffman("aaaabbc");
+        // a=0, b=10, c=11; 'abcaaab' deals out streams "aa", "ba", "cb", "a"
+        byte[] compressed = h.compressInterleaved("abcaaab");
+        assertArrayEquals(new byte[] {7, 1, 1, 1, 0b0000_0000, (byte) 0b1000_0000, (byte) 0b1110_0000, 0}, compressed);
+        assertEquals("abcaaab", h.decompressInterleaved(compressed));
+        assertEquals("", h.decompressInterleaved(h.compressInterleaved("")));
+        assertEquals("ab", h.decompressInterleaved(h.compressInterleaved("ab")));
+
+        // Jump table pointing past the end
+        try {
+            h.decompressInterleaved(new byte[] {7, 1, 9, 1, 0, 0, 0, 0});
+            fail();
+        }
+        catch (IllegalArgumentException e) {}
+        try {
+            Huffman.ofCodePoints("abc").compressInterleaved("abc");
+            fail();
+        }
+        catch (UnsupportedOperationException e) {}
+    }
+
+    @Test
+    public void interleaved_t1() {
+        StringBuilder corpus = new StringBuilder();
+        Random random = new Random(43);
+        for (int i = 0; i < 10_000; i++) {
+            corpus.append((char) ('a' + Math.min(25, (int) Math.abs(random.nextGaussian() * 6))));
+        }
+        String message = corpus.toString();
+        Huffman h = new Huffman(message);
+        for (int length : new int[] {1, 3, 4, 5, 999, message.length()}) {
+            String prefix = message.substring(0, length);
+            byte[] compressed = h.compressInterleaved(prefix);
+            assertEquals(prefix, h.decompressInterleaved(compressed));
+            // The last stream cut short loses only the characters from there on
+            if (length >= Huffman.STREAMS) {
+                String cut = h.decompressInterleaved(Arrays.copyOf(compressed, compressed.length - 1));
+                assertTrue(cut.length() < length && prefix.startsWith(cut));
+            }
+        }
+
+        HuffmanBlocks blocks = new HuffmanBlocks(h, 1000, ForkJoinPool.commonPool(), true, true);
+        byte[] frame = blocks.compress(message);
+        assertEquals(HuffmanBlocks.INTERLEAVED_MAGIC, ByteBuffer.wrap(frame).getInt());
+        assertEquals(message, blocks.decompress(frame));
+        assertEquals(message.substring(1500, 2600), blocks.decompress(frame, 1500, 2600));
+        // Either kind of frame decompresses with either setting
+        assertEquals(message, new HuffmanBlocks(h).decompress(frame));
+        assertEquals(message, blocks.decompress(new HuffmanBlocks(h).compress(message)));
+    }
+
+    // -----------------------------------------------
+    // Adaptive Tests
+    // -----------------------------------------------
+    @Test
+    public void adaptive_t0() {
+        // First sight of a character is the NYT code (nothing, while it is the whole
+        // Trie) and its 16 bits; then 'a' is 1 and NYT 0
+        AdaptiveHuffman encoder = new AdaptiveHuffman();
+        byte[] compressed = encoder.compress("aa");
+        assertArrayEquals(new byte[] {2, 0x00, 0x61, (byte) 0b1000_0000}, compressed);
+        assertEquals("aa", new AdaptiveHuffman().decompress(compressed));
+        assertArrayEquals(new byte[] {0}, new AdaptiveHuffman().compress(""));
+    }
+
+    @Test
+    public void adaptive_t1() {
+        // No corpus, any characters, and both sides stay in step over many messages
+        String[] messages = {"Hello, world!", "", "\uD83D\uDE00 \u00E9t\u00E9", "Hello again, world",
+                             String.join("", Collections.nCopies(500, "the quick brown fox "))};
+        for (int limit : new int[] {16, AdaptiveHuffman.DEFAULT_RESCALE_LIMIT}) {
+            AdaptiveHuffman encoder = new AdaptiveHuffman(limit), decoder = new AdaptiveHuffman(limit);
+            for (String message : messages) {
+                assertEquals(message, decoder.decompress(encoder.compress(message)));
+            }
+        }
+
+        // 16 characters, 4 of them spaces, code in about 4 bits a character
+        AdaptiveHuffman encoder = new AdaptiveHuffman();
+        assertTrue(encoder.compress(messages[4]).length < messages[4].length() * 5 / 8);
+    }
+
+    @Test
+    public void adaptive_t2() {
+        // Rescaling over a long stream whose distribution drifts
+        StringBuilder message = new StringBuilder();
+        Random random = new Random(44);
+        for (int i = 0; i < 50_000; i++) {
+            message.append((char) ((i < 25_000 ? 'a' : 0x400) + Math.min(40, (int) Math.abs(random.nextGaussian() * 8))));
+        }
+        AdaptiveHuffman encoder = new AdaptiveHuffman(1 << 10), decoder = new AdaptiveHuffman(1 << 10);
+        assertEquals(message.toString(), decoder.decompress(encoder.compress(message.toString())));
+
+        for (int limit : new int[] {1, (1 << 24) + 1}) {
+            try {
+                new AdaptiveHuffman(limit);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    // -----------------------------------------------
+    // Context Tests
+    // -----------------------------------------------
+    private static String logLines(int n, long seed) {
+        Random random = new Random(seed);
+        String[] levels = {"INFO", "INFO", "INFO", "WARN", "DEBUG"}, users = {"alice", "bob", "carol"};
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            log.append(String.format("2024-01-%02d 12:%02d:%02d %s user=%s action=%s%n", 1 + random.nextInt(28),
+                                     random.nextInt(60), random.nextInt(60), levels[random.nextInt(levels.length)],
+                                     users[random.nextInt(users.length)], random.nextBoolean() ? "login" : "logout"));
+        }
+        return log.toString();
+    }
+
+    @Test
+    public void context_t0() {
+        String corpus = logLines(2000, 45), message = logLines(200, 46);
+        ContextHuffman order1 = new ContextHuffman(corpus);
+        byte[] compressed = order1.compress(message);
+        assertEquals(message, order1.decompress(compressed));
+        // Knowing the character before pays for itself on text this repetitive
+        assertTrue(compressed.length < 0.8 * new Huffman(corpus).compress(message).length);
+
+        // The model alone rebuilds the same tables
+        byte[] model = order1.serializeModel();
+        ContextHuffman loaded = ContextHuffman.fromModel(model);
+        assertArrayEquals(model, loaded.serializeModel());
+        assertArrayEquals(compressed, loaded.compress(message));
+        assertEquals(message, loaded.decompress(compressed));
+    }
+
+    @Test
+    public void context_t1() {
+        // Every context of "aab" is too rare for a table, and there's no order-0 code to escape
+        // to for unseen characters
+        ContextHuffman rare = new ContextHuffman("aab");
+        assertArrayEquals(new byte[] {3, 0b0010_0000}, rare.compress("aab"));
+        assertArrayEquals(new byte[] {4, 2, 97, 1, 1, 1, 0}, rare.serializeModel());
+        try {
+            rare.compress("abc");
+            fail();
+        }
+        catch (IllegalArgumentException e) {}
+
+        // 'a' is followed by 'a' and 'b' often enough for a table, but never by 'c', which escapes
+        ContextHuffman order1 = new ContextHuffman("aaaabacaab", 3);
+        for (String message : new String[] {"", "c", "ac", "acca", "aaaabacaabac"}) {
+            assertEquals(message, order1.decompress(order1.compress(message)));
+        }
+
+        for (byte[] model : new byte[][] {{}, {1, 0}, {4, 1, 97, 1, 1, 5}, {4, 2, 97, 1, 0, 1, 0}}) {
+            try {
+                ContextHuffman.fromModel(model);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    // -----------------------------------------------
+    // LZ Tests
+    // -----------------------------------------------
+    @Test
+    public void lz_t0() {
+        // Every level and window decompresses to the same bytes, and matches beat order-0 Huffman
+        byte[] data = logLines(3000, 47).getBytes(StandardCharsets.ISO_8859_1);
+        long huffmanSize = new Huffman(new String(data, StandardCharsets.ISO_8859_1))
+                .compress(new String(data, StandardCharsets.ISO_8859_1)).length;
+        for (int level : new int[] {0, 1, 6, 9}) {
+            for (int windowBits : new int[] {10, 15, 24}) {
+                LzHuffman lz = new LzHuffman(level, windowBits);
+                byte[] compressed = lz.compress(data);
+                assertArrayEquals(data, lz.decompress(compressed));
+                if (level > 0) assertTrue(compressed.length < 0.6 * huffmanSize);
+            }
+        }
+
+        // Overlapping matches, empty input, and input too short to match
+        LzHuffman lz = new LzHuffman();
+        for (String s : new String[] {"", "a", "ab", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", "abcabcabcabcx"}) {
+            byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+            assertArrayEquals(bytes, lz.decompress(lz.compress(bytes)));
+        }
+
+        for (int[] args : new int[][] {{-1, 15}, {10, 15}, {6, 9}, {6, 25}}) {
+            try {
+                new LzHuffman(args[0], args[1]);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void lz_t1() throws IOException {
+        // Small blocks, with matches reaching back across them and past sliding the window
+        byte[] data = logLines(2000, 48).getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (LzHuffmanOutputStream out = new LzHuffmanOutputStream(compressed, new LzHuffman(6, 10), 1000)) {
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.write(data, 11, data.length - 11);
+        }
+        LzHuffmanInputStream in = new LzHuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        byte[] decompressed = new byte[data.length];
+        for (int off = 0, n; off < data.length; off += n) {
+            n = in.read(decompressed, off, data.length - off);
+            assertTrue(n > 0);
+        }
+        assertEquals(-1, in.read());
+        assertArrayEquals(data, decompressed);
+
+        // Truncated or corrupted streams are reported, not decoded into garbage
+        byte[] bytes = compressed.toByteArray();
+        LzHuffman lz = new LzHuffman();
+        // A 10-byte varint block length reads back negative
+        byte[] negative = new byte[1 + 10 + 2 + 160];
+        negative[0] = 15;
+        Arrays.fill(negative, 1, 10, (byte) -1);
+        negative[10] = 1;
+        negative[11] = (byte) 0xA0;
+        negative[12] = 1;
+        for (byte[] bad : new byte[][] {Arrays.copyOf(bytes, bytes.length / 2), {9, 0}, {15, 5, 1, 0}, negative}) {
+            try {
+                lz.decompress(bad);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    // -----------------------------------------------
+    // Entropy Coder Tests
+    // -----------------------------------------------
+    @Test
+    public void entropy_t0() {
+        // 98% one byte: Huffman can't go below a bit a byte, tANS can
+        Random random = new Random(47);
+        byte[] skewed = new byte[20_000];
+        for (int i = 0; i < skewed.length; i++) {
+            skewed[i] = (byte) (random.nextInt(50) == 0 ? 'b' + random.nextInt(20) : 'a');
+        }
+        long[] counts = Histogram.ofBytes(ByteBuffer.wrap(skewed));
+        for (EntropyCoder coder : new EntropyCoder[] {new HuffmanCoder(counts), new TansCoder(counts)}) {
+            byte[] out = new byte[coder.maxEncodedSize(skewed.length)];
+            int size = coder.encode(skewed, 0, skewed.length, out, 0);
+            assertTrue(Math.abs(coder.encodedBits(counts) - 8 * size) <= 32);
+
+            EntropyCoder loaded = EntropyCoder.fromModel(coder.engine(), coder.serializeModel());
+            byte[] decoded = new byte[skewed.length];
+            loaded.decode(out, 0, size, decoded, 0, decoded.length);
+            assertArrayEquals(skewed, decoded);
+        }
+        assertEquals(EntropyCoder.TANS, EntropyCoder.of(counts).engine());
+        assertTrue(new TansCoder(counts).encodedBits(counts) < skewed.length / 2);
+
+        // Text gains too little from tANS to give up Huffman's faster decoding
+        byte[] text = logLines(500, 48).getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(EntropyCoder.HUFFMAN, EntropyCoder.of(Histogram.ofBytes(ByteBuffer.wrap(text))).engine());
+    }
+
+    @Test
+    public void entropy_t1() {
+        // Blocks pick their own engines, and single byte blocks work in both
+        byte[] data = (logLines(300, 49) + String.join("", Collections.nCopies(5000, "x"))
+                       + "yyyyyyyyyyyyyyyyyyyyyyyyyyyyyyz").getBytes(StandardCharsets.ISO_8859_1);
+        for (int blockSize : new int[] {1000, EntropyBlocks.DEFAULT_BLOCK_SIZE}) {
+            EntropyBlocks blocks = new EntropyBlocks(blockSize);
+            assertArrayEquals(data, blocks.decompress(blocks.compress(data)));
+        }
+        byte[] start = Arrays.copyOf(data, 100);
+        assertArrayEquals(start, new EntropyBlocks(1).decompress(new EntropyBlocks(1).compress(start)));
+        assertArrayEquals(new byte[0], new EntropyBlocks().decompress(new EntropyBlocks().compress(new byte[0])));
+
+        // tANS shares have to fill the table exactly
+        for (byte[] model : new byte[][] {{}, {11, 1, 97, 1}, {7, 1, 97, (byte) 0x80, 1}, {11, 2, 97, 0, 98, 1}}) {
+            try {
+                EntropyCoder.fromModel(EntropyCoder.TANS, model);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+        byte[] compressed = new EntropyBlocks(1000).compress(data);
+        try {
+            new EntropyBlocks().decompress(Arrays.copyOf(compressed, compressed.length / 2));
+            fail();
+        }
+        catch (IllegalArgumentException e) {}
+    }
+
+    // -----------------------------------------------
+    // Block Type Tests
+    // -----------------------------------------------
+    @Test
+    public void blockType_t0() {
+        // Random bytes are stored as they are, for 2 bytes of header, and a run as its byte
+        byte[] random = new byte[5000];
+        new Random(48).nextBytes(random);
+        byte[] run = new byte[5000];
+        Arrays.fill(run, (byte) 'x');
+        EntropyBlocks blocks = new EntropyBlocks(8192);
+        byte[] compressed = blocks.compress(random);
+        assertEquals(Varint.size(random.length) + 1 + Varint.size(random.length) + random.length, compressed.length);
+        assertEquals(EntropyBlocks.RAW, compressed[Varint.size(random.length)]);
+        assertArrayEquals(random, blocks.decompress(compressed));
+        assertArrayEquals(new byte[] {(byte) 0x88, 0x27, EntropyBlocks.RLE, (byte) 0x88, 0x27, 'x'}, blocks.compress(run));
+        assertArrayEquals(run, blocks.decompress(blocks.compress(run)));
+
+        assertEquals(EntropyBlocks.RAW, EntropyBlocks.blockType(Histogram.ofBytes(ByteBuffer.wrap(random)), 5000));
+        assertEquals(EntropyBlocks.RLE, EntropyBlocks.blockType(Histogram.ofBytes(ByteBuffer.wrap(run)), 5000));
+    }
+
+    @Test
+    public void blockType_t1() {
+        // Block types mix freely in one message
+        byte[] random = new byte[3000];
+        new Random(49).nextBytes(random);
+        byte[] text = logLines(50, 50).getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(text, 0, 1000);
+        data.write(random, 0, random.length);
+        for (int i = 0; i < 1000; i++) data.write(0);
+        data.write(text, 0, text.length);
+        EntropyBlocks blocks = new EntropyBlocks(1000);
+        assertArrayEquals(data.toByteArray(), blocks.decompress(blocks.compress(data.toByteArray())));
+
+        for (byte[] bad : new byte[][] {{5, EntropyBlocks.RAW, 5, 1, 2}, {5, EntropyBlocks.RLE, 5}, {5, 9, 5, 0}}) {
+            try {
+                blocks.decompress(bad);
+                fail();
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    // -----------------------------------------------
+    // File Tests
+    // -----------------------------------------------
+    @Test
+    public void files_t0() throws IOException {
+        // Small mappings, so the windows slide several times each way
+        String corpus = logLines(3000, 51);
+        Huffman h = new Huffman(corpus);
+        Path dir = Files.createTempDirectory("huffman");
+        Path source = dir.resolve("source"), compressed = dir.resolve("compressed"),
+                restored = dir.resolve("restored");
+        try {
+            byte[] data = corpus.getBytes(StandardCharsets.ISO_8859_1);
+            Files.write(source, data);
+            long size = HuffmanFiles.compress(source, compressed, h, HuffmanOutputStream.CHUNK_CHARS);
+            assertEquals(Files.size(compressed), size);
+            assertTrue(size < data.length * 3 / 4);
+            assertEquals(data.length, HuffmanFiles.decompress(compressed, restored, h, 1 << 19));
+            assertArrayEquals(data, Files.readAllBytes(restored));
+
+            // Same format as the streams
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            try (HuffmanOutputStream out = new HuffmanOutputStream(streamed, h)) {
+                out.write(data);
+            }
+            assertArrayEquals(streamed.toByteArray(), Files.readAllBytes(compressed));
+            assertEquals(data.length, HuffmanFiles.decompress(compressed, restored, h));
+
+            Files.write(source, new byte[0]);
+            assertEquals(1, HuffmanFiles.compress(source, compressed, h));
+            assertEquals(0, HuffmanFiles.decompress(compressed, restored, h));
+        }
+        finally {
+            for (Path p : new Path[] {source, compressed, restored, dir}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    public void files_t1() throws IOException {
+        // A file that ends early, or has a bad header, is reported
+        Huffman h = new Huffman("abcabcaab");
+        Path dir = Files.createTempDirectory("huffman");
+        Path source = dir.resolve("source"), restored = dir.resolve("restored");
+        try {
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            try (HuffmanOutputStream out = new HuffmanOutputStream(streamed, h)) {
+                out.write("abcabc".getBytes(StandardCharsets.ISO_8859_1));
+            }
+            byte[] compressed = streamed.toByteArray();
+            Files.write(source, Arrays.copyOf(compressed, compressed.length - 1));
+            try {
+                HuffmanFiles.decompress(source, restored, h);
+                fail();
+            }
+            catch (EOFException e) {}
+
+            Files.write(source, new byte[] {(byte) 0x80, (byte) 0x80, 0x10, 1});
+            try {
+                HuffmanFiles.decompress(source, restored, h);
+                fail();
+            }
+            catch (EOFException e) {
+                fail();
+            }
+            catch (IOException e) {}
+        }
+        finally {
+            for (Path p : new Path[] {source, restored, dir}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // -----------------------------------------------
+    // Shared Model Tests
+    // -----------------------------------------------
+    @Test
+    public void sharedModel_t0() {
+        // Instances wrapping one model code the same as one built straight from the corpus
+        String corpus = logLines(500, 52), message = logLines(20, 53);
+        HuffmanModel model = HuffmanModel.ofChars(corpus);
+        Huffman a = Huffman.of(model), b = Huffman.of(model);
+        assertArrayEquals(new Huffman(corpus).compress(message), a.compress(message));
+        assertEquals(message, b.decompress(a.compress(message)));
+        assertTrue(a.model() == b.model());
+
+        assertArrayEquals(model.serialize(), HuffmanModel.fromModel(model.serialize()).serialize());
+        assertArrayEquals(model.serialize(), Huffman.fromModel(model.serialize()).serializeModel());
+        byte[] bytes = corpus.getBytes(StandardCharsets.ISO_8859_1);
+        assertArrayEquals(Huffman.ofBytes(bytes, 9).serializeModel(), HuffmanModel.ofBytes(bytes, 9).serialize());
+    }
+
+    @Test
+    public void sharedModel_t1() throws Exception {
+        // Every thread gets the same model, built once
+        HuffmanModelRegistry registry = new HuffmanModelRegistry(2);
+        String corpus = logLines(2000, 54);
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            List<Future<HuffmanModel>> models = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                models.add(pool.submit(() -> registry.ofChars(corpus, 20)));
+            }
+            for (Future<HuffmanModel> model : models) {
+                assertTrue(model.get() == models.get(0).get());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        HuffmanModel model = registry.ofChars(corpus, 20);
+        String fingerprint = HuffmanModelRegistry.fingerprint(Huffman.CHARS, 20, corpus);
+        assertTrue(registry.get(fingerprint) == model);
+        assertEquals(1, registry.size());
+
+        // The same corpus under another alphabet or cap is another model
+        assertTrue(registry.ofChars(corpus, 21) != model);
+        assertTrue(registry.ofCodePoints(corpus, 20) != model);
+        assertFalse(fingerprint.equals(HuffmanModelRegistry.fingerprint(Huffman.CHARS, 20, corpus + " ")));
+
+        // Evicted from the two most recent, but still found while something holds on to it
+        assertTrue(registry.get(fingerprint) == model);
+        assertEquals(null, registry.get(HuffmanModelRegistry.fingerprint(Huffman.BYTES, 20, new byte[0])));
+    }
+
 }
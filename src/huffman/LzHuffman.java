@@ -0,0 +1,249 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LzHuffman: deflate-style compression of bytes, an LZ77 stage (see
+ * {@link MatchFinder}) followed by Huffman coding of its output. Each block
+ * gets two Huffman tables built from its own tokens: one for literal bytes
+ * and match lengths, and one for match distances. Lengths and distances
+ * are coded as a bucket (their bit length and the bit after the leading 1)
+ * plus the rest of their bits sent as is.
+ *
+ * Use it through {@link LzHuffmanOutputStream} and
+ * {@link LzHuffmanInputStream}, or on whole arrays with
+ * {@link #compress(byte[])} and {@link #decompress(byte[])}. A compressed
+ * stream is laid out as:
+ * byte window size in bits, then for each block: varint number of bytes,
+ * varint size of the block's payload, payload, and ends with a varint 0.
+ * A payload is the two tables' code lengths, 4 bits each (literals and
+ * lengths first), followed by the tokens' bitstring, 0-padded.
+ */
+public class LzHuffman {
+
+    /**
+     * Level and window by default, deflate's
+     */
+    public static final int DEFAULT_LEVEL = 6, DEFAULT_WINDOW_BITS = 15;
+
+    static final int MIN_WINDOW_BITS = 10, MAX_WINDOW_BITS = 24;
+
+    /* Literal bytes, then a code per length bucket; and a code per distance bucket */
+    static final int LITERALS = 256, LENGTH_CODES = 16, DISTANCE_CODES = 2 * MAX_WINDOW_BITS;
+    private static final int LITERAL_LENGTH_CODES = LITERALS + LENGTH_CODES;
+
+    /* Longest code, so that its length fits in 4 bits */
+    private static final int MAX_CODE_LENGTH = 15;
+
+    /* Bytes of code lengths at the start of every payload */
+    private static final int TABLES_SIZE = (LITERAL_LENGTH_CODES + DISTANCE_CODES) / 2;
+
+    private final int level, windowBits;
+
+    public LzHuffman() {
+        this(DEFAULT_LEVEL, DEFAULT_WINDOW_BITS);
+    }
+
+    /**
+     * @param level      0 (Huffman only, fastest) to 9 (longest match searches, smallest)
+     * @param windowBits farthest back a match can reach, as a power of 2, from 10 to 24
+     */
+    public LzHuffman(int level, int windowBits) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Invalid level, must be from 0 to 9");
+        }
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Invalid window, must be from " + MIN_WINDOW_BITS + " to "
+                                               + MAX_WINDOW_BITS + " bits");
+        }
+        this.level = level;
+        this.windowBits = windowBits;
+    }
+
+    int level() { return level; }
+
+    int windowBits() { return windowBits; }
+
+    /**
+     * @param data Bytes to compress
+     * @return The compressed stream, as {@link LzHuffmanOutputStream} writes it
+     */
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+        try (LzHuffmanOutputStream out = new LzHuffmanOutputStream(compressed, this)) {
+            out.write(data);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @param compressed A compressed stream
+     * @return The original bytes
+     * @throws IllegalArgumentException if compressed is malformed or ends early
+     */
+    public byte[] decompress(byte[] compressed) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(2 * compressed.length);
+        byte[] buffer = new byte[1 << 16];
+        try (LzHuffmanInputStream in = new LzHuffmanInputStream(new ByteArrayInputStream(compressed))) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                data.write(buffer, 0, n);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Invalid compressed stream: " + e.getMessage(), e);
+        }
+        return data.toByteArray();
+    }
+
+    // -----------------------------------------------
+    // Blocks
+    // -----------------------------------------------
+
+    /**
+     * @return most bytes the payload of a block of n bytes can take up
+     */
+    static int maxPayloadSize(int n) {
+        // A literal costs at most 15 bits, and a match of at least 3 bytes at most 58
+        long bits = 20L * n;
+        return (int) Math.min(Integer.MAX_VALUE - 8, TABLES_SIZE + (bits + 7) / 8 + Long.BYTES);
+    }
+
+    /**
+     * Builds the block's tables from its tokens, and writes them and the tokens' codes
+     * into out
+     *
+     * @return index just past the last byte written
+     */
+    static int encodeBlock(int[] lengths, int[] distances, int nTokens, byte[] out, int position) {
+        long[] literalCounts = new long[LITERAL_LENGTH_CODES], distanceCounts = new long[DISTANCE_CODES];
+        for (int t = 0; t < nTokens; t++) {
+            if (distances[t] == 0) {
+                literalCounts[lengths[t]]++;
+            }
+            else {
+                literalCounts[LITERALS + bucket(lengths[t] - MatchFinder.MIN_MATCH)]++;
+                distanceCounts[bucket(distances[t] - 1)]++;
+            }
+        }
+        int[] literalLengths = Arrays.copyOf(Huffman.codeLengths(literalCounts, MAX_CODE_LENGTH), LITERAL_LENGTH_CODES);
+        int[] distanceLengths = Arrays.copyOf(Huffman.codeLengths(distanceCounts, MAX_CODE_LENGTH), DISTANCE_CODES);
+
+        for (int i = 0; i < LITERAL_LENGTH_CODES + DISTANCE_CODES; i += 2) {
+            out[position++] = (byte) (length(literalLengths, distanceLengths, i) << 4
+                                      | length(literalLengths, distanceLengths, i + 1));
+        }
+
+        long[] literalCodes = Huffman.canonicalCodes(literalLengths, LITERAL_LENGTH_CODES);
+        long[] distanceCodes = Huffman.canonicalCodes(distanceLengths, DISTANCE_CODES);
+        ByteBuffer buffer = ByteBuffer.wrap(out, position, out.length - position);
+        BitWriter writer = new BitWriter(buffer);
+        for (int t = 0; t < nTokens; t++) {
+            if (distances[t] == 0) {
+                write(writer, literalCodes[lengths[t]]);
+                continue;
+            }
+            int length = lengths[t] - MatchFinder.MIN_MATCH, distance = distances[t] - 1;
+            int lengthBucket = bucket(length), distanceBucket = bucket(distance);
+            write(writer, literalCodes[LITERALS + lengthBucket]);
+            writer.write(length - base(lengthBucket), extraBits(lengthBucket));
+            write(writer, distanceCodes[distanceBucket]);
+            writer.write(distance - base(distanceBucket), extraBits(distanceBucket));
+        }
+        writer.finish();
+        return buffer.position();
+    }
+
+    /**
+     * Decodes a payload into out[start, start + n), copying matches from as far back
+     * as out[history]
+     *
+     * @throws IllegalArgumentException if the payload is malformed, or a match reaches
+     *                                  back before history or past the block's end
+     */
+    static void decodeBlock(byte[] payload, int size, byte[] out, int history, int start, int n) {
+        if (size < TABLES_SIZE) {
+            throw new IllegalArgumentException("Invalid block, truncated code lengths");
+        }
+        int[] literalLengths = new int[LITERAL_LENGTH_CODES], distanceLengths = new int[DISTANCE_CODES];
+        for (int i = 0; i < LITERAL_LENGTH_CODES + DISTANCE_CODES; i++) {
+            int length = payload[i / 2] >>> (i % 2 == 0 ? 4 : 0) & 0xF;
+            if (i < LITERAL_LENGTH_CODES)
+                literalLengths[i] = length;
+            else
+                distanceLengths[i - LITERAL_LENGTH_CODES] = length;
+        }
+        DecodeTable literals = new DecodeTable(Huffman.canonicalCodes(literalLengths, LITERAL_LENGTH_CODES));
+        DecodeTable distances = new DecodeTable(Huffman.canonicalCodes(distanceLengths, DISTANCE_CODES));
+
+        BitReader bits = new BitReader(payload, TABLES_SIZE, size);
+        for (int i = start, end = start + n; i < end; ) {
+            int symbol = literals.next(bits);
+            if (symbol < 0) {
+                throw new IllegalArgumentException("Invalid block, bitstring too short");
+            }
+            if (symbol < LITERALS) {
+                out[i++] = (byte) symbol;
+                continue;
+            }
+
+            int length = readBucket(bits, symbol - LITERALS) + MatchFinder.MIN_MATCH;
+            int distanceBucket = distances.next(bits);
+            if (distanceBucket < 0) {
+                throw new IllegalArgumentException("Invalid block, bitstring too short");
+            }
+            int distance = readBucket(bits, distanceBucket) + 1;
+            if (distance > i - history || length > end - i) {
+                throw new IllegalArgumentException("Invalid block, match out of range");
+            }
+            // Byte by byte, since a match can overlap the bytes it produces
+            for (int from = i - distance, to = i + length; i < to; ) {
+                out[i++] = out[from++];
+            }
+        }
+    }
+
+    private static int length(int[] literalLengths, int[] distanceLengths, int i) {
+        return i < LITERAL_LENGTH_CODES ? literalLengths[i] : distanceLengths[i - LITERAL_LENGTH_CODES];
+    }
+
+    private static void write(BitWriter writer, long code) {
+        writer.write(code >>> 8, (int) code & 0xFF);
+    }
+
+    private static int readBucket(BitReader bits, int bucket) {
+        int n = extraBits(bucket);
+        if (n > bits.remaining()) {
+            throw new IllegalArgumentException("Invalid block, bitstring too short");
+        }
+        int extra = n == 0 ? 0 : (int) (bits.window() >>> Long.SIZE - n);
+        bits.skip(n);
+        return base(bucket) + extra;
+    }
+
+    /*
+     * Buckets of a value v: 0 to 3 are their own, after that twice the index of the
+     * leading 1 bit, plus the bit after it
+     */
+    static int bucket(int v) {
+        if (v < 4) return v;
+        int log = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(v);
+        return 2 * log + (v >>> log - 1 & 1);
+    }
+
+    static int base(int bucket) {
+        return bucket < 4 ? bucket : (2 | bucket & 1) << extraBits(bucket);
+    }
+
+    static int extraBits(int bucket) {
+        return bucket < 4 ? 0 : (bucket >>> 1) - 1;
+    }
+
+}
@@ -0,0 +1,137 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * LzHuffmanInputStream: decompresses a stream written by
+ * {@link LzHuffmanOutputStream} a block at a time, keeping the window's
+ * worth of bytes before each block for its matches to copy from. Reads
+ * return -1 once the end marker is reached, and a stream that ends before
+ * then is reported as an EOFException.
+ */
+public class LzHuffmanInputStream extends FilterInputStream {
+
+    private byte[] payload = new byte[0];
+    /* Bytes already read, at least the window's worth once there are that many, then the block */
+    private byte[] decoded;
+    private int window, position, limit;
+    private boolean ended;
+
+    /**
+     * @param in stream of compressed blocks
+     */
+    public LzHuffmanInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !readBlock()) return -1;
+        return decoded[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
+        if (position == limit && !readBlock()) return -1;
+
+        int n = Math.min(len, limit - position);
+        System.arraycopy(decoded, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < limit || readBlock())) {
+            int step = (int) Math.min(n - skipped, limit - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {}
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /*
+     * Decodes the next block into decoded, or returns false at the end marker
+     */
+    private boolean readBlock() throws IOException {
+        if (ended) return false;
+        if (decoded == null) readHeader();
+
+        long nBytes = Varint.read(in);
+        if (nBytes == 0) {
+            ended = true;
+            return false;
+        }
+        long size = Varint.read(in);
+        if (nBytes < 0 || nBytes > LzHuffmanOutputStream.BLOCK_SIZE
+            || size < 0 || size > LzHuffman.maxPayloadSize((int) nBytes)) {
+            throw new IOException("Invalid compressed block header");
+        }
+
+        if (size > payload.length) payload = Arrays.copyOf(payload, (int) size);
+        readFully(payload, (int) size);
+
+        // Keep the last window's worth of bytes, if the block wouldn't fit after them all
+        int start = limit;
+        if (start + nBytes > decoded.length) {
+            int keep = Math.min(window, start);
+            System.arraycopy(decoded, start - keep, decoded, 0, keep);
+            start = keep;
+        }
+        try {
+            LzHuffman.decodeBlock(payload, (int) size, decoded, Math.max(0, start - window), start, (int) nBytes);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compressed block", e);
+        }
+        position = start;
+        limit = start + (int) nBytes;
+        return true;
+    }
+
+    private void readHeader() throws IOException {
+        int windowBits = in.read();
+        if (windowBits < 0) throw new EOFException("Unexpected end of compressed stream");
+        if (windowBits < LzHuffman.MIN_WINDOW_BITS || windowBits > LzHuffman.MAX_WINDOW_BITS) {
+            throw new IOException("Invalid compressed stream, window of " + windowBits + " bits");
+        }
+        window = 1 << windowBits;
+        decoded = new byte[2 * window + LzHuffmanOutputStream.BLOCK_SIZE];
+    }
+
+    private void readFully(byte[] b, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            int n = in.read(b, off, len - off);
+            if (n < 0) throw new EOFException("Unexpected end of compressed stream");
+            off += n;
+        }
+    }
+
+}
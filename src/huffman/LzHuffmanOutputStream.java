@@ -0,0 +1,152 @@
+package huffman;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * LzHuffmanOutputStream: compresses everything written to it with
+ * {@link LzHuffman}, a block at a time. Matches reach back across blocks
+ * into the window, so no more than one block and two windows' worth of
+ * input are ever held in memory. Read it back with {@link LzHuffmanInputStream}.
+ */
+public class LzHuffmanOutputStream extends FilterOutputStream {
+
+    /* Most bytes in one block, also the most an LzHuffmanInputStream will accept */
+    static final int BLOCK_SIZE = 1 << 18;
+
+    private final MatchFinder matchFinder;
+    private final int window, blockSize;
+
+    /* Bytes already compressed, at least the window's worth once there are that many, then the block */
+    private final byte[] work;
+    private int nHistory, nPending;
+    private final int[] lengths, distances;
+    private final byte[] payload;
+    private final byte[] header = new byte[2 * Varint.MAX_BYTES];
+    private boolean started, finished;
+
+    /**
+     * @param out       stream the compressed blocks are written to
+     * @param lzHuffman level and window to compress with
+     */
+    public LzHuffmanOutputStream(OutputStream out, LzHuffman lzHuffman) {
+        this(out, lzHuffman, BLOCK_SIZE);
+    }
+
+    /**
+     * @param out       stream the compressed blocks are written to
+     * @param lzHuffman level and window to compress with
+     * @param blockSize number of bytes buffered before a block is compressed,
+     *                  from 1 to 2^18
+     */
+    public LzHuffmanOutputStream(OutputStream out, LzHuffman lzHuffman, int blockSize) {
+        super(out);
+        if (lzHuffman == null) {
+            throw new IllegalArgumentException("Invalid LzHuffman instance");
+        }
+        if (blockSize < 1 || blockSize > BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid block size");
+        }
+
+        this.window = 1 << lzHuffman.windowBits();
+        this.matchFinder = new MatchFinder(lzHuffman.level(), window);
+        this.blockSize = blockSize;
+        this.work = new byte[2 * window + blockSize];
+        this.lengths = new int[blockSize];
+        this.distances = new int[blockSize];
+        this.payload = new byte[LzHuffman.maxPayloadSize(blockSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (nPending == blockSize) writeBlock();
+        work[nHistory + nPending++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            if (nPending == blockSize) writeBlock();
+            int n = Math.min(len, blockSize - nPending);
+            System.arraycopy(b, off, work, nHistory + nPending, n);
+            nPending += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses whatever has been written so far into a (possibly short) block, then
+     * flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Compresses what's left and writes the end marker, without closing the
+     * underlying stream. Nothing more can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        writeBlock();
+        writeHeader();
+        out.write(0);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (nPending == 0) return;
+        writeHeader();
+
+        int end = nHistory + nPending;
+        int nTokens = matchFinder.parse(work, nHistory, end, lengths, distances);
+        int size = LzHuffman.encodeBlock(lengths, distances, nTokens, payload, 0);
+        int position = Varint.write(nPending, header, 0);
+        position = Varint.write(size, header, position);
+        out.write(header, 0, position);
+        out.write(payload, 0, size);
+
+        // Make room for the next block, keeping at least the window's worth of bytes, and
+        // moving them by whole windows so the match finder's chains still line up
+        if (end + blockSize > work.length) {
+            int offset = (end - window) / window * window;
+            System.arraycopy(work, offset, work, 0, end - offset);
+            matchFinder.slide(offset);
+            end -= offset;
+        }
+        nHistory = end;
+        nPending = 0;
+    }
+
+    private void writeHeader() throws IOException {
+        if (started) return;
+        out.write(Integer.numberOfTrailingZeros(window));
+        started = true;
+    }
+
+    private void checkOpen() throws IOException {
+        if (finished) throw new IOException("Stream finished");
+    }
+
+}
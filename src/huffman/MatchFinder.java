@@ -0,0 +1,154 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * MatchFinder: the LZ77 stage of {@link LzHuffman}, which turns bytes into
+ * literals and (length, distance) references back to an earlier copy of
+ * the same bytes. Every position's first 3 bytes are hashed, and each hash
+ * chains back through every earlier position with the same hash, newest
+ * first, within the window. Higher levels follow longer chains, and lazily
+ * check whether the match at the next byte beats the one at this byte
+ * before taking it.
+ */
+class MatchFinder {
+
+    static final int MIN_MATCH = 3, MAX_MATCH = 258;
+
+    private static final int HASH_BITS = 15;
+    private static final int NONE = -1;
+
+    /* By level: most chain links followed per search, and a match long enough to stop at */
+    private static final int[] MAX_CHAIN = {0, 4, 8, 16, 32, 64, 128, 256, 1024, 4096};
+    private static final int[] NICE_LENGTH = {0, 8, 16, 32, 16, 32, 128, 128, MAX_MATCH, MAX_MATCH};
+    private static final int LAZY_LEVEL = 4;
+
+    private final int window, maxChain, niceLength;
+    private final boolean lazy;
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] prev;
+    /* Positions before this one are already in the hash chains */
+    private int inserted;
+
+    /**
+     * @param level  0 (literals only) to 9 (longest searches)
+     * @param window farthest back a match can start, a power of 2
+     */
+    MatchFinder(int level, int window) {
+        this.window = window;
+        this.maxChain = MAX_CHAIN[level];
+        this.niceLength = NICE_LENGTH[level];
+        this.lazy = level >= LAZY_LEVEL;
+        this.prev = new int[maxChain == 0 ? 0 : window];
+        Arrays.fill(head, NONE);
+    }
+
+    /**
+     * Parses data[start, end) into tokens, with matches reaching back into the bytes
+     * before start that earlier calls parsed, as far as the window allows. A literal
+     * token is its byte value and a distance of 0.
+     *
+     * @param lengths   each token's byte value, or match length
+     * @param distances each token's match distance, or 0 for literals
+     * @return number of tokens
+     */
+    int parse(byte[] data, int start, int end, int[] lengths, int[] distances) {
+        if (maxChain == 0) {
+            for (int i = start; i < end; i++) {
+                lengths[i - start] = data[i] & 0xFF;
+            }
+            return end - start;
+        }
+
+        // The last bytes of the previous call, which were too close to its end to hash
+        for (int i = Math.max(inserted, start - window); i < start; i++) {
+            insert(data, i, end);
+        }
+
+        int nTokens = 0;
+        for (int i = start; i < end; ) {
+            long match = longestMatch(data, i, end);
+            insert(data, i, end);
+            // Put off a match for a literal while the next byte starts a longer one
+            while (lazy && length(match) >= MIN_MATCH && length(match) < niceLength && i + 1 < end) {
+                long next = longestMatch(data, i + 1, end);
+                if (length(next) <= length(match)) break;
+                lengths[nTokens] = data[i++] & 0xFF;
+                distances[nTokens++] = 0;
+                insert(data, i, end);
+                match = next;
+            }
+
+            int length = length(match);
+            if (length < MIN_MATCH) {
+                lengths[nTokens] = data[i++] & 0xFF;
+                distances[nTokens++] = 0;
+                continue;
+            }
+            lengths[nTokens] = length;
+            distances[nTokens++] = (int) (match >>> 32);
+            for (int j = i + 1; j < i + length; j++) {
+                insert(data, j, end);
+            }
+            i += length;
+        }
+        return nTokens;
+    }
+
+    /**
+     * Moves every position offset bytes back, for when data itself is shifted that
+     * far to make room; positions that fall off the front are forgotten
+     *
+     * @param offset a multiple of the window, so positions keep their chain slots
+     */
+    void slide(int offset) {
+        for (int h = 0; h < head.length; h++) {
+            head[h] = head[h] < offset ? NONE : head[h] - offset;
+        }
+        for (int i = 0; i < prev.length; i++) {
+            prev[i] = prev[i] < offset ? NONE : prev[i] - offset;
+        }
+        inserted = Math.max(0, inserted - offset);
+    }
+
+    /*
+     * Longest match for data[i...] as (distance << 32) | length, 0 if none
+     */
+    private long longestMatch(byte[] data, int i, int end) {
+        if (end - i < MIN_MATCH) return 0;
+        int limit = Math.min(MAX_MATCH, end - i);
+        int best = MIN_MATCH - 1, bestDistance = 0;
+        for (int candidate = head[hash(data, i)], chain = maxChain;
+             candidate != NONE && i - candidate < window && chain > 0; chain--) {
+            if (data[candidate + best] == data[i + best]) {
+                int length = 0;
+                while (length < limit && data[candidate + length] == data[i + length]) length++;
+                if (length > best) {
+                    best = length;
+                    bestDistance = i - candidate;
+                    if (length >= niceLength || length == limit) break;
+                }
+            }
+            int next = prev[candidate & window - 1];
+            if (next >= candidate) break;
+            candidate = next;
+        }
+        return best < MIN_MATCH ? 0 : (long) bestDistance << 32 | best;
+    }
+
+    private void insert(byte[] data, int i, int end) {
+        if (end - i < MIN_MATCH) return;
+        int h = hash(data, i);
+        prev[i & window - 1] = head[h];
+        head[h] = i;
+        inserted = i + 1;
+    }
+
+    private static int length(long match) { return (int) match; }
+
+    private static int hash(byte[] data, int i) {
+        int key = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | data[i + 2] & 0xFF;
+        return key * 0x9E3779B1 >>> Integer.SIZE - HASH_BITS;
+    }
+
+}
@@ -0,0 +1,81 @@
+package huffman;
+
+/**
+ * MultiDecodeTable: a lookup table that decodes as many as SYMBOLS short
+ * codes per access. It is indexed by the next BITS bits of input, and each
+ * entry holds every code that fits whole in those bits, one after the
+ * other, so a run of 2-4 bit codes comes out of a single lookup. Codes
+ * longer than BITS are left to the DecodeTable.
+ *
+ * An entry is laid out as:
+ * (third symbol << 48) | (second symbol << 32) | (first symbol << 16)
+ * | (number of symbols << 8) | bits used
+ * and has no symbols when the first code is longer than BITS, or matches
+ * no code at all.
+ */
+class MultiDecodeTable {
+
+    static final int BITS = 11, SYMBOLS = 3;
+
+    /* Average code length, weighing each code by its share of the code space, worth packing */
+    private static final double MAX_AVERAGE_BITS = 5;
+
+    private final long[] entries = new long[1 << BITS];
+
+    /**
+     * @param codes encoding table indexed by symbol, every symbol at most 16 bits:
+     *              the code's bits shifted left by 8, OR'd with its length, or 0
+     *              if the symbol has no code
+     */
+    MultiDecodeTable(long[] codes) {
+        // The single code each BITS bit index starts with, when it fits
+        int[] single = new int[1 << BITS];
+        for (int symbol = 0; symbol < codes.length; symbol++) {
+            int length = (int) codes[symbol] & 0xFF;
+            if (length == 0 || length > BITS) continue;
+            int first = (int) (codes[symbol] >>> 8) << BITS - length;
+            for (int index = first; index < first + (1 << BITS - length); index++) {
+                single[index] = symbol << 8 | length;
+            }
+        }
+
+        for (int index = 0; index < entries.length; index++) {
+            long entry = 0;
+            int used = 0, n = 0;
+            for (; n < SYMBOLS; n++) {
+                int code = single[index << used & (1 << BITS) - 1];
+                int length = code & 0xFF;
+                if (length == 0 || used + length > BITS) break;
+                used += length;
+                entry |= (long) (code >>> 8) << 16 * (n + 1);
+            }
+            entries[index] = entry | n << 8 | used;
+        }
+    }
+
+    /**
+     * @return entry for the codes at the start of the given window, left aligned
+     */
+    long entry(long window) {
+        return entries[(int) (window >>> Long.SIZE - BITS)];
+    }
+
+    /**
+     * @return whether codes are short enough on average, and symbols small enough,
+     * for packing several into each entry to pay off
+     */
+    static boolean worthwhile(long[] codes) {
+        if (codes.length > Character.MAX_VALUE + 1) return false;
+        double average = 0;
+        for (long code : codes) {
+            int length = (int) code & 0xFF;
+            if (length > 0) average += length * Math.pow(2, -length);
+        }
+        return average > 0 && average <= MAX_AVERAGE_BITS;
+    }
+
+    static int count(long entry) { return (int) (entry >>> 8 & 0xFF); }
+
+    static int used(long entry) { return (int) entry & 0xFF; }
+
+}
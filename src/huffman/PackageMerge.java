@@ -0,0 +1,92 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * PackageMerge: optimal prefix code lengths under a cap on the longest code,
+ * by the package-merge algorithm. Each of maxLength levels holds the symbols
+ * sorted by count, merged with "packages" made by pairing up neighbouring
+ * items of the level below; the cheapest 2n - 2 items of the top level then
+ * decide the code lengths, each symbol's length being how many levels it is
+ * picked at.
+ */
+class PackageMerge {
+
+    private PackageMerge() {}
+
+    /**
+     * @param counts    count of each symbol, indexed by symbol, 0 for symbols that don't appear
+     * @param maxLength longest code allowed
+     * @return code length of each symbol, indexed by symbol, 0 for symbols that don't appear
+     * @throws IllegalArgumentException if more symbols appear than codes of maxLength bits can tell apart
+     */
+    static int[] lengths(long[] counts, int maxLength) {
+        int n = 0;
+        for (long count : counts) {
+            if (count > 0) n++;
+        }
+        if (maxLength < Long.SIZE - 1 && n > 1L << maxLength) {
+            throw new IllegalArgumentException("Invalid code length limit, " + n + " symbols need more than "
+                                               + maxLength + " bits");
+        }
+
+        // Symbols that appear, sorted by count
+        long[] leaves = new long[n];
+        int[] symbols = new int[n];
+        for (int symbol = 0, i = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] > 0) leaves[i++] = counts[symbol] << 21 | symbol;
+        }
+        Arrays.sort(leaves);
+        for (int i = 0; i < n; i++) {
+            symbols[i] = (int) (leaves[i] & (1 << 21) - 1);
+            leaves[i] = counts[symbols[i]];
+        }
+
+        int[] lengths = new int[counts.length];
+        if (n == 1) lengths[symbols[0]] = 1;
+        if (n <= 1) return lengths;
+
+        // Level 0 is the deepest (codes of maxLength bits); an item's leaf index is -1 for packages
+        long[][] weights = new long[maxLength][];
+        int[][] leafOf = new int[maxLength][];
+        weights[0] = leaves.clone();
+        leafOf[0] = new int[n];
+        for (int i = 0; i < n; i++) {
+            leafOf[0][i] = i;
+        }
+        for (int level = 1; level < maxLength; level++) {
+            long[] below = weights[level - 1];
+            int nPackages = below.length / 2, size = n + nPackages;
+            weights[level] = new long[size];
+            leafOf[level] = new int[size];
+
+            for (int item = 0, leaf = 0, pack = 0; item < size; item++) {
+                long packWeight = pack < nPackages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && leaves[leaf] <= packWeight) {
+                    weights[level][item] = leaves[leaf];
+                    leafOf[level][item] = leaf++;
+                }
+                else {
+                    weights[level][item] = packWeight;
+                    leafOf[level][item] = -1;
+                    pack++;
+                }
+            }
+        }
+
+        // Walk back down, each picked package standing for the first two unpicked items below it
+        int take = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && take > 0; level--) {
+            int nPackages = 0;
+            for (int item = 0; item < take; item++) {
+                if (leafOf[level][item] < 0)
+                    nPackages++;
+                else
+                    lengths[symbols[leafOf[level][item]]]++;
+            }
+            take = 2 * nPackages;
+        }
+        return lengths;
+    }
+
+}
@@ -0,0 +1,248 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TansCoder: the table-based asymmetric numeral system (tANS) engine of
+ * {@link EntropyCoder}. Each byte's count is scaled to a share of a table
+ * of 2^tableLog states, and the coder's state moves from one table entry
+ * to the next with every byte, shedding a few low bits into the
+ * bitstring. A byte with share n of the table costs log2(table / n) bits,
+ * fractions included, where Huffman rounds every cost to a whole number
+ * of bits, at least 1.
+ *
+ * Bytes are encoded last to first, so the decoder can run first to last:
+ * the bitstring starts with the encoder's final state, followed by the
+ * bits each byte shed, in the order the decoder needs them.
+ *
+ * The model is laid out as: byte table log, varint number of symbols,
+ * then for each symbol in increasing order, its distance from the
+ * previous one as a varint (the first one's value instead) followed by
+ * its share of the table as a varint.
+ */
+class TansCoder implements EntropyCoder {
+
+    static final int DEFAULT_TABLE_LOG = 11, MIN_TABLE_LOG = 8, MAX_TABLE_LOG = 12;
+
+    private static final int BYTES = 256;
+
+    private final int tableLog;
+    private final int[] shares;
+
+    /*
+     * Decoding table indexed by state - table size:
+     * (next state base << 12) | (bits to read << 8) | symbol
+     */
+    private final int[] decodeTable;
+
+    /*
+     * Encoding table: for symbol s with share n, the states a state x in [n, 2n) moves
+     * to are at stateTable[start[s] + x - n]. A state X sheds its low bits[s] bits when
+     * X >= threshold[s], else one fewer, leaving it in [n, 2n).
+     */
+    private final int[] stateTable, start, bits, threshold;
+
+    TansCoder(long[] counts) {
+        this(DEFAULT_TABLE_LOG, normalize(counts, DEFAULT_TABLE_LOG));
+    }
+
+    private TansCoder(int tableLog, int[] shares) {
+        this.tableLog = tableLog;
+        this.shares = shares;
+        int size = 1 << tableLog;
+
+        // Spread each symbol's states over the table, so no symbol's states bunch together
+        int[] spread = new int[size];
+        int step = (size >>> 1) + (size >>> 3) + 3, position = 0;
+        for (int symbol = 0; symbol < BYTES; symbol++) {
+            for (int i = 0; i < shares[symbol]; i++) {
+                spread[position] = symbol;
+                position = position + step & size - 1;
+            }
+        }
+
+        start = new int[BYTES];
+        bits = new int[BYTES];
+        threshold = new int[BYTES];
+        for (int symbol = 0, total = 0; symbol < BYTES; total += shares[symbol++]) {
+            start[symbol] = total;
+            if (shares[symbol] == 0) continue;
+            bits[symbol] = tableLog - log2(shares[symbol]);
+            threshold[symbol] = shares[symbol] << bits[symbol];
+        }
+
+        decodeTable = new int[size];
+        stateTable = new int[size];
+        int[] next = shares.clone();
+        for (int state = 0; state < size; state++) {
+            int symbol = spread[state], x = next[symbol]++;
+            int nBits = tableLog - log2(x);
+            decodeTable[state] = ((x << nBits) - size) << 12 | nBits << 8 | symbol;
+            stateTable[start[symbol] + x - shares[symbol]] = size + state;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if model is malformed, or its shares don't fill the table
+     */
+    static TansCoder fromModel(byte[] model) {
+        ByteBuffer in = ByteBuffer.wrap(model);
+        int tableLog = in.hasRemaining() ? in.get() : 0;
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG) {
+            throw new IllegalArgumentException("Invalid model table log");
+        }
+
+        long nSymbols = Varint.read(in);
+        if (nSymbols < 1 || nSymbols > BYTES) {
+            throw new IllegalArgumentException("Invalid model, too many symbols");
+        }
+        int[] shares = new int[BYTES];
+        long symbol = 0, total = 0;
+        for (long i = 0; i < nSymbols; i++) {
+            long gap = Varint.read(in);
+            symbol = i == 0 ? gap : symbol + gap;
+            if (gap < 0 || (i > 0 && gap == 0) || symbol >= BYTES) {
+                throw new IllegalArgumentException("Invalid model, symbols out of order or range");
+            }
+            long share = Varint.read(in);
+            if (share < 1 || share > 1 << tableLog) {
+                throw new IllegalArgumentException("Invalid model share");
+            }
+            shares[(int) symbol] = (int) share;
+            total += share;
+        }
+        if (total != 1 << tableLog) {
+            throw new IllegalArgumentException("Invalid model, shares don't add up to the table size");
+        }
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Invalid model, trailing bytes");
+        }
+        return new TansCoder(tableLog, shares);
+    }
+
+    @Override
+    public int engine() { return TANS; }
+
+    @Override
+    public long encodedBits(long[] counts) {
+        double nBits = tableLog;
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] == 0) continue;
+            if (symbol >= BYTES || shares[symbol] == 0) return Long.MAX_VALUE;
+            nBits += counts[symbol] * (tableLog - Math.log(shares[symbol]) / Math.log(2));
+        }
+        return (long) Math.ceil(nBits);
+    }
+
+    @Override
+    public byte[] serializeModel() {
+        int nSymbols = 0, size = 1;
+        for (int symbol = 0, previous = 0; symbol < BYTES; symbol++) {
+            if (shares[symbol] == 0) continue;
+            size += Varint.size(nSymbols == 0 ? symbol : symbol - previous) + Varint.size(shares[symbol]);
+            nSymbols++;
+            previous = symbol;
+        }
+
+        byte[] model = new byte[size + Varint.size(nSymbols)];
+        model[0] = (byte) tableLog;
+        int position = Varint.write(nSymbols, model, 1);
+        for (int symbol = 0, previous = 0, written = 0; symbol < BYTES; symbol++) {
+            if (shares[symbol] == 0) continue;
+            position = Varint.write(written++ == 0 ? symbol : symbol - previous, model, position);
+            position = Varint.write(shares[symbol], model, position);
+            previous = symbol;
+        }
+        return model;
+    }
+
+    @Override
+    public int encode(byte[] in, int from, int to, byte[] out, int position) {
+        // Last byte first, keeping what each one sheds, as (bits << 4) | number of bits
+        int[] shed = new int[to - from];
+        int state = 1 << tableLog;
+        for (int i = to - 1; i >= from; i--) {
+            int symbol = in[i] & 0xFF;
+            if (shares[symbol] == 0) {
+                throw new IllegalArgumentException("Invalid byte, not in model: " + symbol);
+            }
+            int nBits = state >= threshold[symbol] ? bits[symbol] : bits[symbol] - 1;
+            shed[i - from] = (state & (1 << nBits) - 1) << 4 | nBits;
+            state = stateTable[start[symbol] + (state >>> nBits) - shares[symbol]];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(out, position, out.length - position);
+        BitWriter writer = new BitWriter(buffer);
+        writer.write(state - (1 << tableLog), tableLog);
+        for (int s : shed) {
+            writer.write(s >>> 4, s & 0xF);
+        }
+        writer.finish();
+        return buffer.position();
+    }
+
+    @Override
+    public void decode(byte[] in, int position, int end, byte[] out, int from, int count) {
+        BitReader reader = new BitReader(in, position, end);
+        int state = (int) read(reader, tableLog);
+        for (int i = from; i < from + count; i++) {
+            int entry = decodeTable[state];
+            out[i] = (byte) entry;
+            state = (entry >>> 12) + (int) read(reader, entry >>> 8 & 0xF);
+        }
+    }
+
+    @Override
+    public int maxEncodedSize(int n) {
+        // No byte sheds more than a whole table's worth of bits
+        return (int) Math.min(Integer.MAX_VALUE - 8, ((long) n * tableLog + tableLog + 7) / 8 + Long.BYTES);
+    }
+
+    private static long read(BitReader reader, int n) {
+        if (n > reader.remaining()) {
+            throw new IllegalArgumentException("Invalid compressed block, bitstring too short");
+        }
+        long value = n == 0 ? 0 : reader.window() >>> Long.SIZE - n;
+        reader.skip(n);
+        return value;
+    }
+
+    /*
+     * Scales counts to shares of a table of 2^tableLog, every byte that appears keeping
+     * at least 1: rounded, with what's left over (or missing) settled by the largest
+     */
+    static int[] normalize(long[] counts, int tableLog) {
+        int size = 1 << tableLog;
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Invalid counts, nothing to code");
+        }
+
+        int[] shares = new int[BYTES];
+        int sum = 0;
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] == 0) continue;
+            shares[symbol] = (int) Math.max(1, Math.round((double) counts[symbol] * size / total));
+            sum += shares[symbol];
+        }
+        while (sum != size) {
+            int largest = 0;
+            for (int symbol = 1; symbol < BYTES; symbol++) {
+                if (shares[symbol] > shares[largest]) largest = symbol;
+            }
+            int change = sum < size ? size - sum : -Math.min(sum - size, shares[largest] - 1);
+            shares[largest] += change;
+            sum += change;
+        }
+        return shares;
+    }
+
+    private static int log2(int n) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(n);
+    }
+
+}
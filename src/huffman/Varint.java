@@ -0,0 +1,89 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Varint: unsigned variable-length integers, 7 bits per byte, least
+ * significant group first, with the high bit of each byte set when
+ * another byte follows. Values under 128 take a single byte.
+ */
+class Varint {
+
+    /* Longest encoding of a 64-bit value */
+    static final int MAX_BYTES = 10;
+
+    private Varint() {}
+
+    /**
+     * @return number of bytes value takes up
+     */
+    static int size(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    /**
+     * Writes value into out starting at position
+     *
+     * @return index just past the last byte written
+     */
+    static int write(long value, byte[] out, int position) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Writes value into out at its position, and moves the position past it
+     */
+    static void write(long value, ByteBuffer out) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads the value at the buffer's position, and moves the position past it
+     *
+     * @throws IllegalArgumentException if the value runs past the buffer's limit or over 64 bits
+     */
+    static long read(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid varint, truncated");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Invalid varint, longer than 64 bits");
+    }
+
+    /**
+     * Reads the next value from in
+     *
+     * @throws EOFException if in ends partway through the value
+     * @throws IOException  if in can't be read, or the value runs over 64 bits
+     */
+    static long read(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated varint");
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) return value;
+        }
+        throw new IOException("Invalid varint, longer than 64 bits");
+    }
+
+}